@@ -34,8 +34,14 @@ package extern;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -87,6 +93,23 @@ public class PNGDecoder {
     private static final byte COLOR_GREYALPHA = 4;
     private static final byte COLOR_TRUEALPHA = 6;  
     
+    // scanlines in flight between the two threads of decodePipelined
+    private static final int RING_LINES = 16;
+    private static final byte[] END_OF_LINES = new byte[0];
+    
+    // unrolled unfilters for 3 and 4 bytes per pixel and array based swizzles, see unfilter and convertLine.
+    // -Dpngdecoder.scalar=true selects the plain byte loops, which give bit identical results
+    private static final boolean FAST_PATHS = !Boolean.getBoolean("pngdecoder.scalar");
+    
+    private static final ExecutorService inflaters = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "png inflater");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    
     private final InputStream input;
     private final CRC32 crc;
     private final byte[] buffer;
@@ -103,6 +126,8 @@ public class PNGDecoder {
     private byte[] palette;
     private byte[] paletteA;
     private byte[] transPixel;
+    // converted scanline for the fast swizzles, written to the buffer in one put
+    private byte[] outLine;
     
     public PNGDecoder(InputStream input) throws IOException {
       
@@ -279,57 +304,7 @@ public class PNGDecoder {
                 unfilter(curLine, prevLine);
 
                 buffer.position(offset + y*stride);
-
-                switch (colorType) {
-                case COLOR_TRUECOLOR:
-                    switch (fmt) {
-                    case ABGR: copyRGBtoABGR(buffer, curLine); break;
-                    case RGBA: copyRGBtoRGBA(buffer, curLine); break;
-                    case BGRA: copyRGBtoBGRA(buffer, curLine); break;
-                    case RGB: copy(buffer, curLine); break;
-                    default: throw new UnsupportedOperationException("Unsupported format for this image");
-                    }
-                    break;
-                case COLOR_TRUEALPHA:
-                    switch (fmt) {
-                    case ABGR: copyRGBAtoABGR(buffer, curLine); break;
-                    case RGBA: copy(buffer, curLine); break;
-                    case BGRA: copyRGBAtoBGRA(buffer, curLine); break;
-                    case RGB: copyRGBAtoRGB(buffer, curLine); break;
-                    default: throw new UnsupportedOperationException("Unsupported format for this image");
-                    }
-                    break;
-                case COLOR_GREYSCALE:
-                    switch (fmt) {
-                    case LUMINANCE:
-                    case ALPHA: copy(buffer, curLine); break;
-                    default: throw new UnsupportedOperationException("Unsupported format for this image");
-                    }
-                    break;
-                case COLOR_GREYALPHA:
-                    switch (fmt) {
-                    case LUMINANCE_ALPHA: copy(buffer, curLine); break;
-                    default: throw new UnsupportedOperationException("Unsupported format for this image");
-                    }
-                    break;
-                case COLOR_INDEXED:
-                    switch(bitdepth) {
-                        case 8: palLine = curLine; break;
-                        case 4: expand4(curLine, palLine); break;
-                        case 2: expand2(curLine, palLine); break;
-                        case 1: expand1(curLine, palLine); break;
-                        default: throw new UnsupportedOperationException("Unsupported bitdepth for this image");
-                    }
-                    switch (fmt) {
-                    case ABGR: copyPALtoABGR(buffer, palLine); break;
-                    case RGBA: copyPALtoRGBA(buffer, palLine); break;
-                    case BGRA: copyPALtoBGRA(buffer, palLine); break;
-                    default: throw new UnsupportedOperationException("Unsupported format for this image");
-                    }
-                    break;
-                default:
-                    throw new UnsupportedOperationException("Not yet implemented");
-                }
+                convertLine(buffer, curLine, palLine, fmt);
 
                 byte[] tmp = curLine;
                 curLine = prevLine;
@@ -340,6 +315,80 @@ public class PNGDecoder {
         }
     }
 
+    /**
+     * Decodes the image like {@link #decode(ByteBuffer, int, Format)}, with identical output, but on two threads:
+     * a helper thread inflates the IDAT data into a ring of scanline buffers, while the calling thread unfilters
+     * and converts the lines into the buffer. Worth it for large images, where inflating and unfiltering take
+     * about the same time.
+     *
+     * @param buffer the buffer
+     * @param stride the stride in bytes from start of a line to start of the next line, can be negative.
+     * @param fmt the target format into which the image should be decoded.
+     * @throws IOException if a read or data error occurred
+     * @throws IllegalArgumentException if the start position of a line falls outside the buffer
+     * @throws UnsupportedOperationException if the image can't be decoded into the desired format
+     */
+    @SuppressWarnings("hiding")
+    public void decodePipelined(ByteBuffer buffer, int stride, Format fmt) throws IOException {
+        final int offset = buffer.position();
+        final int lineSize = ((width * bitdepth + 7) / 8) * bytesPerPixel;
+        byte[] prevLine = new byte[lineSize+1];
+        byte[] palLine = (bitdepth < 8) ? new byte[width+1] : null;
+        
+        // the ring holds RING_LINES buffers plus the previous line, the filled queue also the end marker
+        final ArrayBlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(RING_LINES+1);
+        final ArrayBlockingQueue<byte[]> filled = new ArrayBlockingQueue<byte[]>(RING_LINES+1);
+        for(int i=0 ; i<RING_LINES ; i++) {
+            free.add(new byte[lineSize+1]);
+        }
+        final IOException[] error = new IOException[1];
+        
+        Future<?> producer = inflaters.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Inflater inflater = new Inflater();
+                try {
+                    for(int y=0 ; y<height ; y++) {
+                        byte[] line = free.take();
+                        readChunkUnzip(inflater, line, 0, line.length);
+                        filled.put(line);
+                    }
+                } catch (InterruptedException ex) {
+                    // the consumer gave up
+                    return;
+                } catch (IOException ex) {
+                    error[0] = ex;
+                } catch (RuntimeException ex) {
+                    error[0] = new IOException(ex);
+                } finally {
+                    inflater.end();
+                }
+                filled.offer(END_OF_LINES);
+            }
+        });
+        
+        try {
+            for(int y=0 ; y<height ; y++) {
+                byte[] curLine = filled.take();
+                if(curLine == END_OF_LINES) {
+                    throw error[0] != null ? error[0] : new EOFException();
+                }
+                unfilter(curLine, prevLine);
+
+                buffer.position(offset + y*stride);
+                convertLine(buffer, curLine, palLine, fmt);
+
+                free.put(prevLine);
+                prevLine = curLine;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("png decode interrupted");
+        } finally {
+            producer.cancel(true);
+        }
+    }
+
     /**
      * Decodes the image into the specified buffer. The last line is placed at
      * the current position. After decode the buffer position is at the end of
@@ -364,11 +413,114 @@ public class PNGDecoder {
         buffer.position(buffer.position() + posDelta);
     }
     
+    @SuppressWarnings("hiding")
+    private void convertLine(ByteBuffer buffer, byte[] curLine, byte[] palLine, Format fmt) {
+        switch (colorType) {
+        case COLOR_TRUECOLOR:
+            switch (fmt) {
+            case ABGR: copyRGBtoABGR(buffer, curLine); break;
+            case RGBA:
+                if(FAST_PATHS && transPixel == null) swizzleRGB(buffer, curLine, 0, 1, 2);
+                else copyRGBtoRGBA(buffer, curLine);
+                break;
+            case BGRA:
+                if(FAST_PATHS && transPixel == null) swizzleRGB(buffer, curLine, 2, 1, 0);
+                else copyRGBtoBGRA(buffer, curLine);
+                break;
+            case RGB: copy(buffer, curLine); break;
+            default: throw new UnsupportedOperationException("Unsupported format for this image");
+            }
+            break;
+        case COLOR_TRUEALPHA:
+            switch (fmt) {
+            case ABGR:
+                if(FAST_PATHS) swizzleRGBA(buffer, curLine, 3, 2, 1, 0);
+                else copyRGBAtoABGR(buffer, curLine);
+                break;
+            case RGBA: copy(buffer, curLine); break;
+            case BGRA:
+                if(FAST_PATHS) swizzleRGBA(buffer, curLine, 2, 1, 0, 3);
+                else copyRGBAtoBGRA(buffer, curLine);
+                break;
+            case RGB: copyRGBAtoRGB(buffer, curLine); break;
+            default: throw new UnsupportedOperationException("Unsupported format for this image");
+            }
+            break;
+        case COLOR_GREYSCALE:
+            switch (fmt) {
+            case LUMINANCE:
+            case ALPHA: copy(buffer, curLine); break;
+            default: throw new UnsupportedOperationException("Unsupported format for this image");
+            }
+            break;
+        case COLOR_GREYALPHA:
+            switch (fmt) {
+            case LUMINANCE_ALPHA: copy(buffer, curLine); break;
+            default: throw new UnsupportedOperationException("Unsupported format for this image");
+            }
+            break;
+        case COLOR_INDEXED:
+            switch(bitdepth) {
+                case 8: palLine = curLine; break;
+                case 4: expand4(curLine, palLine); break;
+                case 2: expand2(curLine, palLine); break;
+                case 1: expand1(curLine, palLine); break;
+                default: throw new UnsupportedOperationException("Unsupported bitdepth for this image");
+            }
+            switch (fmt) {
+            case ABGR: copyPALtoABGR(buffer, palLine); break;
+            case RGBA: copyPALtoRGBA(buffer, palLine); break;
+            case BGRA: copyPALtoBGRA(buffer, palLine); break;
+            default: throw new UnsupportedOperationException("Unsupported format for this image");
+            }
+            break;
+        default:
+            throw new UnsupportedOperationException("Not yet implemented");
+        }
+    }
+    
     @SuppressWarnings("hiding")
     private void copy(ByteBuffer buffer, byte[] curLine) {
         buffer.put(curLine, 1, curLine.length-1);
     }
 
+    // rgb to 4 channels with opaque alpha, source channels r, g, b go to destination bytes ri, gi, bi
+    @SuppressWarnings("hiding")
+    private void swizzleRGB(ByteBuffer buffer, byte[] curLine, int ri, int gi, int bi) {
+        final int n = (curLine.length-1) / 3 * 4;
+        byte[] out = outLine(n);
+        for(int i=1,o=0 ; o<n ; i+=3,o+=4) {
+            byte r = curLine[i], g = curLine[i+1], b = curLine[i+2];
+            out[o+ri] = r;
+            out[o+gi] = g;
+            out[o+bi] = b;
+            out[o+3] = (byte)0xFF;
+        }
+        buffer.put(out, 0, n);
+    }
+
+    // rgba with source channels r, g, b, a going to destination bytes ri, gi, bi, ai
+    @SuppressWarnings("hiding")
+    private void swizzleRGBA(ByteBuffer buffer, byte[] curLine, int ri, int gi, int bi, int ai) {
+        final int n = curLine.length-1;
+        byte[] out = outLine(n);
+        for(int o=0 ; o<n ; o+=4) {
+            byte r = curLine[o+1], g = curLine[o+2], b = curLine[o+3], a = curLine[o+4];
+            out[o+ri] = r;
+            out[o+gi] = g;
+            out[o+bi] = b;
+            out[o+ai] = a;
+        }
+        buffer.put(out, 0, n);
+    }
+    
+    private byte[] outLine(int n) {
+        if(outLine == null || outLine.length < n) {
+            outLine = new byte[n];
+        }
+        return outLine;
+    }
+
     @SuppressWarnings("hiding")
     private void copyRGBtoABGR(ByteBuffer buffer, byte[] curLine) {
         if(transPixel != null) {
@@ -571,16 +723,22 @@ public class PNGDecoder {
             case 0: // none
                 break;
             case 1:
-                unfilterSub(curLine);
+                if(FAST_PATHS && bytesPerPixel == 4) unfilterSub4(curLine);
+                else if(FAST_PATHS && bytesPerPixel == 3) unfilterSub3(curLine);
+                else unfilterSub(curLine);
                 break;
             case 2:
                 unfilterUp(curLine, prevLine);
                 break;
             case 3:
-                unfilterAverage(curLine, prevLine);
+                if(FAST_PATHS && bytesPerPixel == 4) unfilterAverage4(curLine, prevLine);
+                else if(FAST_PATHS && bytesPerPixel == 3) unfilterAverage3(curLine, prevLine);
+                else unfilterAverage(curLine, prevLine);
                 break;
             case 4:
-                unfilterPaeth(curLine, prevLine);
+                if(FAST_PATHS && bytesPerPixel == 4) unfilterPaeth4(curLine, prevLine);
+                else if(FAST_PATHS && bytesPerPixel == 3) unfilterPaeth3(curLine, prevLine);
+                else unfilterPaeth(curLine, prevLine);
                 break;
             default:
                 throw new IOException("invalide filter type in scanline: " + curLine[0]);
@@ -635,6 +793,100 @@ public class PNGDecoder {
         }
     }
       
+    /*
+     * The filters below work a whole pixel per iteration, with the channels of the left pixel (a) and the one above
+     * it (c) kept in locals instead of being read back from the line. The channels are independent of each other,
+     * so their dependency chains overlap. Up has no dependency between bytes and is left to the JIT as it is.
+     */
+    
+    private void unfilterSub4(byte[] curLine) {
+        byte a0 = curLine[1], a1 = curLine[2], a2 = curLine[3], a3 = curLine[4];
+        for(int i=5,n=curLine.length ; i<n ; i+=4) {
+            curLine[i  ] = a0 += curLine[i  ];
+            curLine[i+1] = a1 += curLine[i+1];
+            curLine[i+2] = a2 += curLine[i+2];
+            curLine[i+3] = a3 += curLine[i+3];
+        }
+    }
+    
+    private void unfilterSub3(byte[] curLine) {
+        byte a0 = curLine[1], a1 = curLine[2], a2 = curLine[3];
+        for(int i=4,n=curLine.length ; i<n ; i+=3) {
+            curLine[i  ] = a0 += curLine[i  ];
+            curLine[i+1] = a1 += curLine[i+1];
+            curLine[i+2] = a2 += curLine[i+2];
+        }
+    }
+    
+    private void unfilterAverage4(byte[] curLine, byte[] prevLine) {
+        int a0 = (curLine[1] += (byte)((prevLine[1] & 0xFF) >>> 1)) & 0xFF;
+        int a1 = (curLine[2] += (byte)((prevLine[2] & 0xFF) >>> 1)) & 0xFF;
+        int a2 = (curLine[3] += (byte)((prevLine[3] & 0xFF) >>> 1)) & 0xFF;
+        int a3 = (curLine[4] += (byte)((prevLine[4] & 0xFF) >>> 1)) & 0xFF;
+        for(int i=5,n=curLine.length ; i<n ; i+=4) {
+            a0 = (curLine[i  ] += (byte)(((prevLine[i  ] & 0xFF) + a0) >>> 1)) & 0xFF;
+            a1 = (curLine[i+1] += (byte)(((prevLine[i+1] & 0xFF) + a1) >>> 1)) & 0xFF;
+            a2 = (curLine[i+2] += (byte)(((prevLine[i+2] & 0xFF) + a2) >>> 1)) & 0xFF;
+            a3 = (curLine[i+3] += (byte)(((prevLine[i+3] & 0xFF) + a3) >>> 1)) & 0xFF;
+        }
+    }
+    
+    private void unfilterAverage3(byte[] curLine, byte[] prevLine) {
+        int a0 = (curLine[1] += (byte)((prevLine[1] & 0xFF) >>> 1)) & 0xFF;
+        int a1 = (curLine[2] += (byte)((prevLine[2] & 0xFF) >>> 1)) & 0xFF;
+        int a2 = (curLine[3] += (byte)((prevLine[3] & 0xFF) >>> 1)) & 0xFF;
+        for(int i=4,n=curLine.length ; i<n ; i+=3) {
+            a0 = (curLine[i  ] += (byte)(((prevLine[i  ] & 0xFF) + a0) >>> 1)) & 0xFF;
+            a1 = (curLine[i+1] += (byte)(((prevLine[i+1] & 0xFF) + a1) >>> 1)) & 0xFF;
+            a2 = (curLine[i+2] += (byte)(((prevLine[i+2] & 0xFF) + a2) >>> 1)) & 0xFF;
+        }
+    }
+    
+    private void unfilterPaeth4(byte[] curLine, byte[] prevLine) {
+        int a0 = (curLine[1] += prevLine[1]) & 255, c0 = prevLine[1] & 255;
+        int a1 = (curLine[2] += prevLine[2]) & 255, c1 = prevLine[2] & 255;
+        int a2 = (curLine[3] += prevLine[3]) & 255, c2 = prevLine[3] & 255;
+        int a3 = (curLine[4] += prevLine[4]) & 255, c3 = prevLine[4] & 255;
+        for(int i=5,n=curLine.length ; i<n ; i+=4) {
+            int b0 = prevLine[i  ] & 255;
+            int b1 = prevLine[i+1] & 255;
+            int b2 = prevLine[i+2] & 255;
+            int b3 = prevLine[i+3] & 255;
+            a0 = (curLine[i  ] += (byte)paeth(a0, b0, c0)) & 255;
+            a1 = (curLine[i+1] += (byte)paeth(a1, b1, c1)) & 255;
+            a2 = (curLine[i+2] += (byte)paeth(a2, b2, c2)) & 255;
+            a3 = (curLine[i+3] += (byte)paeth(a3, b3, c3)) & 255;
+            c0 = b0; c1 = b1; c2 = b2; c3 = b3;
+        }
+    }
+    
+    private void unfilterPaeth3(byte[] curLine, byte[] prevLine) {
+        int a0 = (curLine[1] += prevLine[1]) & 255, c0 = prevLine[1] & 255;
+        int a1 = (curLine[2] += prevLine[2]) & 255, c1 = prevLine[2] & 255;
+        int a2 = (curLine[3] += prevLine[3]) & 255, c2 = prevLine[3] & 255;
+        for(int i=4,n=curLine.length ; i<n ; i+=3) {
+            int b0 = prevLine[i  ] & 255;
+            int b1 = prevLine[i+1] & 255;
+            int b2 = prevLine[i+2] & 255;
+            a0 = (curLine[i  ] += (byte)paeth(a0, b0, c0)) & 255;
+            a1 = (curLine[i+1] += (byte)paeth(a1, b1, c1)) & 255;
+            a2 = (curLine[i+2] += (byte)paeth(a2, b2, c2)) & 255;
+            c0 = b0; c1 = b1; c2 = b2;
+        }
+    }
+    
+    // the paeth predictor, same tie breaking as unfilterPaeth
+    private static int paeth(int a, int b, int c) {
+        int pa = b - c; if(pa < 0) pa = -pa;
+        int pb = a - c; if(pb < 0) pb = -pb;
+        int pc = a + b - c - c; if(pc < 0) pc = -pc;
+        if(pa<=pb && pa<=pc)
+            return a;
+        if(pb<=pc)
+            return b;
+        return c;
+    }
+      
     private void readIHDR() throws IOException {
         checkChunkLength(13);
         readChunk(buffer, 0, 13);
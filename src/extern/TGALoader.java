@@ -1,7 +1,6 @@
 package extern;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -9,7 +8,11 @@ import java.nio.ByteBuffer;
 import org.lwjgl.BufferUtils;
 
 /**
- * A utility to load TGAs. Note: NOT THREAD SAFE
+ * A utility to load TGAs. Every instance reads one image, so several images can be loaded at the same time on
+ * different threads.
+ *
+ * Supports uncompressed and RLE compressed true color (types 2 and 10, 24 or 32 bit) and greyscale (types 3 and 11,
+ * 8 bit) images. Pixels are decoded as RGB, RGBA or luminance, see {@link Descriptor#getComponents()}.
  *
  * Fresh cut of code but largely influeneced by the TGA loading class
  * provided as part of the Java Monkey Engine (JME). Why not check out
@@ -19,217 +22,315 @@ import org.lwjgl.BufferUtils;
  * @author Kevin Glass
  */
 public class TGALoader {
-        /** The width of the texture that needs to be generated */
-        private static int texWidth;
-        /** The height of the texture that needs to be generated */
-        private static int texHeight;
-        /** The width of the TGA image */
-        private static int width;
-        /** The height of the TGA image */
-        private static int height;
-        /** The bit depth of the image */
-        private static short pixelDepth;
-
-        /**
-         * Create a new TGA Loader
-         */
-        private TGALoader() {
-        }
-
-        /**
-         * Flip the endian-ness of the short
-         *
-         * @param signedShort The short to flip
-         * @return The flipped short
-         */
-        private static short flipEndian(short signedShort) {
-                int input = signedShort & 0xFFFF;
-                return (short) (input << 8 | (input & 0xFF00) >>> 8);
-        }
-       
-        /**
-         * Get the last bit depth read from a TGA
-         *
-         * @return The last bit depth read
-         */
-        public static int getLastDepth() {
-                return pixelDepth;
-        }
-       
-        /**
-         * Get the last width read from a TGA
-         *
-         * @return Get the last width in pixels fread from a TGA
-         */
-        public static int getLastWidth() {
-                return width;
-        }
-
-        /**
-         * Get the last height read from a TGA
-         *
-         * @return Get the last height in pixels fread from a TGA
-         */
-        public static int getLastHeight() {
-                return height;
-        }
-
-        /**
-         * Get the last required texture width for a loaded image
-         *
-         * @return Get the ast required texture width for a loaded image
-         */
-        public static int getLastTexWidth() {
-                return texWidth;
-        }
-
-        /**
-         * Get the ast required texture height for a loaded image
-         *
-         * @return Get the ast required texture height for a loaded image
-         */
-        public static int getLastTexHeight() {
-                return texHeight;
-        }
-       
-        /**
-         * Load a TGA image from the specified stream
-         *
-         * @param fis The stream from which we'll load the TGA
-         * @throws IOException Indicates a failure to read the TGA
-         * @return The byte buffer containing texture data
-         */
-        public static ByteBuffer loadImage(InputStream fis) throws IOException {
-                return loadImage(fis,true);
-        }
-       
-        /**
-         * Load a TGA image from the specified stream
-         *
-         * @param fis The stream from which we'll load the TGA
-         * @param flipped True if we loading in flipped mode (used for cursors)
-         * @return The byte buffer containing texture data
-         * @throws IOException Indicates a failure to read the TGA
-         */
-        public static ByteBuffer loadImage(InputStream fis, boolean flipped) throws IOException {
-                byte red = 0;
-                byte green = 0;
-                byte blue = 0;
-                byte alpha = 0;
-               
-                BufferedInputStream bis = new BufferedInputStream(fis, 100000);
-                DataInputStream dis = new DataInputStream(bis);
-               
-                // Read in the Header
-                short idLength = (short) dis.read();
-                /*short colorMapType = (short) dis.read();
-                short imageType = (short) dis.read();
-                short cMapStart = flipEndian(dis.readShort());
-                short cMapLength = flipEndian(dis.readShort());
-                short cMapDepth = (short) dis.read();
-                short xOffset = flipEndian(dis.readShort());
-                short yOffset = flipEndian(dis.readShort());*/
-               
-                width = flipEndian(dis.readShort());
-                height = flipEndian(dis.readShort());
-                pixelDepth = (short) dis.read();
-               
-                texWidth = get2Fold(width);
-                texHeight = get2Fold(height);
-               
-                //short imageDescriptor = (short) dis.read();
-                // Skip image ID
-                if (idLength > 0) {
-                        bis.skip(idLength);
-                }
-               
-                byte[] rawData = null;
-                if (pixelDepth == 32)
-                        rawData = new byte[texWidth * texHeight * 4];
-                else
-                        rawData = new byte[texWidth * texHeight * 3];
-               
-                if (pixelDepth == 24) {
-                        for (int i = height-1; i >= 0; i--) {
-                                for (int j = 0; j < width; j++) {
-                                        blue = dis.readByte();
-                                        green = dis.readByte();
-                                        red = dis.readByte();
-                                       
-                                        int ofs = ((j + (i * texWidth)) * 3);
-                                        rawData[ofs] = red;
-                                        rawData[ofs + 1] = green;
-                                        rawData[ofs + 2] = blue;
-                                }
-                        }
-                } else if (pixelDepth == 32) {
-                        if (flipped) {
-                                for (int i = height-1; i >= 0; i--) {
-                                        for (int j = 0; j < width; j++) {
-                                                blue = dis.readByte();
-                                                green = dis.readByte();
-                                                red = dis.readByte();
-                                                alpha = dis.readByte();
-                                               
-                                                int ofs = ((j + (i * texWidth)) * 4);
-                                               
-                                                rawData[ofs] = red;
-                                                rawData[ofs + 1] = green;
-                                                rawData[ofs + 2] = blue;
-                                                rawData[ofs + 3] = alpha;
-                                               
-                                                if (alpha == 0) {
-                                                        rawData[ofs + 2] = (byte) 0;
-                                                        rawData[ofs + 1] = (byte) 0;
-                                                        rawData[ofs] = (byte) 0;
-                                                }
-                                        }
-                                }
-                        } else {
-                                for (int i = 0; i < height; i++) {
-                                        for (int j = 0; j < width; j++) {
-                                                blue = dis.readByte();
-                                                green = dis.readByte();
-                                                red = dis.readByte();
-                                                alpha = dis.readByte();
-                                               
-                                                int ofs = ((j + (i * texWidth)) * 4);
-                                               
-                                                rawData[ofs + 2] = red;
-                                                rawData[ofs + 1] = green;
-                                                rawData[ofs] = blue;
-                                                rawData[ofs + 3] = alpha;
-                                               
-                                                if (alpha == 0) {
-                                                        rawData[ofs + 2] = (byte) 0;
-                                                        rawData[ofs + 1] = (byte) 0;
-                                                        rawData[ofs] = (byte) 0;
-                                                }
-                                        }
-                                }
-                        }
+
+    /**
+     * The header of a TGA image. Immutable.
+     */
+    public static final class Descriptor {
+        private final int width;
+        private final int height;
+        private final int pixelDepth;
+        private final int imageType;
+        private final boolean topDown;
+
+        private Descriptor(int width, int height, int pixelDepth, int imageType, boolean topDown) {
+            this.width = width;
+            this.height = height;
+            this.pixelDepth = pixelDepth;
+            this.imageType = imageType;
+            this.topDown = topDown;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** bits per pixel in the file: 8, 24 or 32 */
+        public int getPixelDepth() {
+            return pixelDepth;
+        }
+
+        /** 2, 3, 10 or 11 */
+        public int getImageType() {
+            return imageType;
+        }
+
+        public boolean isCompressed() {
+            return imageType >= 9;
+        }
+
+        /** true if the first row in the file is the top of the image */
+        public boolean isTopDown() {
+            return topDown;
+        }
+
+        /** bytes per decoded pixel: 1 (luminance), 3 (RGB) or 4 (RGBA) */
+        public int getComponents() {
+            return pixelDepth / 8;
+        }
+    }
+
+    private static final int TYPE_TRUECOLOR = 2;
+    private static final int TYPE_GREYSCALE = 3;
+    private static final int TYPE_RLE_TRUECOLOR = 10;
+    private static final int TYPE_RLE_GREYSCALE = 11;
+
+    private static final int HEADER_SIZE = 18;
+
+    private final InputStream input;
+    private final Descriptor descriptor;
+
+    // read buffer, so the stream is read in blocks and not byte by byte
+    private final byte[] buffer;
+    private int bufferPos;
+    private int bufferEnd;
+
+    // an RLE packet can continue on the next row
+    private int packetRemaining;
+    private boolean packetRepeats;
+    private final byte[] packetPixel;
+
+    /**
+     * Reads the header. The stream is not closed by this class.
+     *
+     * @param input the stream the TGA is read from
+     * @throws IOException if the header can't be read or describes an unsupported image
+     */
+    public TGALoader(InputStream input) throws IOException {
+        this.input = input;
+        this.buffer = new byte[16384];
+
+        byte[] header = new byte[HEADER_SIZE];
+        readFully(header, 0, HEADER_SIZE);
+
+        int idLength = header[0] & 255;
+        int colorMapType = header[1] & 255;
+        int imageType = header[2] & 255;
+        int colorMapLength = readShort(header, 5);
+        int colorMapDepth = header[7] & 255;
+        int width = readShort(header, 12);
+        int height = readShort(header, 14);
+        int pixelDepth = header[16] & 255;
+        int imageDescriptor = header[17] & 255;
+
+        switch (imageType) {
+        case TYPE_TRUECOLOR:
+        case TYPE_RLE_TRUECOLOR:
+            if(pixelDepth != 24 && pixelDepth != 32) {
+                throw new IOException("Unsupported bit depth: " + pixelDepth);
+            }
+            break;
+        case TYPE_GREYSCALE:
+        case TYPE_RLE_GREYSCALE:
+            if(pixelDepth != 8) {
+                throw new IOException("Unsupported bit depth: " + pixelDepth);
+            }
+            break;
+        default:
+            throw new IOException("Unsupported TGA image type: " + imageType);
+        }
+        if(width == 0 || height == 0) {
+            throw new IOException("Empty TGA image");
+        }
+        if((imageDescriptor & 0x10) != 0) {
+            throw new IOException("Right to left TGA images are not supported");
+        }
+
+        // skip the image id and a color map we don't use
+        skip(idLength);
+        if(colorMapType != 0) {
+            skip(colorMapLength * ((colorMapDepth + 7) / 8));
+        }
+
+        descriptor = new Descriptor(width, height, pixelDepth, imageType, (imageDescriptor & 0x20) != 0);
+        packetPixel = new byte[pixelDepth / 8];
+    }
+
+    public Descriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Decodes the image into the specified buffer. The top line is placed at the current position. After decode the
+     * buffer position is at the end of the bottom line.
+     *
+     * @param buffer the buffer, usually direct
+     * @param stride the stride in bytes from start of a line to start of the next line, can be negative.
+     * @throws IOException if a read or data error occurred
+     * @throws IllegalArgumentException if the start position of a line falls outside the buffer
+     */
+    @SuppressWarnings("hiding")
+    public void decode(ByteBuffer buffer, int stride) throws IOException {
+        final int width = descriptor.width;
+        final int height = descriptor.height;
+        final int bpp = descriptor.getComponents();
+        final int offset = buffer.position();
+        byte[] row = new byte[width * bpp];
+
+        for(int y=0 ; y<height ; y++) {
+            if(descriptor.isCompressed()) {
+                readRLERow(row);
+            } else {
+                readFully(row, 0, row.length);
+            }
+            // BGR(A) to RGB(A)
+            if(bpp >= 3) {
+                for(int i=0 ; i<row.length ; i+=bpp) {
+                    byte b = row[i];
+                    row[i] = row[i+2];
+                    row[i+2] = b;
                 }
-                fis.close();
-               
-                // Get a pointer to the image memory
-                ByteBuffer scratch = BufferUtils.createByteBuffer(rawData.length);
-                scratch.put(rawData);
-                scratch.flip();
-               
-                return scratch;
+            }
+
+            int line = descriptor.topDown ? y : height-1-y;
+            buffer.position(offset + line*stride);
+            buffer.put(row);
+        }
+        buffer.position(offset + (height-1)*stride + row.length);
+    }
+
+    /**
+     * Decodes the image into the specified buffer. The bottom line is placed at the current position. After decode
+     * the buffer position is at the end of the top line.
+     *
+     * @param buffer the buffer, usually direct
+     * @param stride the stride in bytes from start of a line to start of the next line, must be positive.
+     * @throws IOException if a read or data error occurred
+     * @throws IllegalArgumentException if the start position of a line falls outside the buffer
+     */
+    @SuppressWarnings("hiding")
+    public void decodeFlipped(ByteBuffer buffer, int stride) throws IOException {
+        if(stride <= 0) {
+            throw new IllegalArgumentException("stride");
         }
+        int pos = buffer.position();
+        int posDelta = (descriptor.height-1) * stride;
+        buffer.position(pos + posDelta);
+        decode(buffer, -stride);
+        buffer.position(pos + posDelta + descriptor.width * descriptor.getComponents());
+    }
+
+    /**
+     * Load a TGA image from the specified stream into a new direct buffer, top line first
+     *
+     * @param fis The stream from which we'll load the TGA, closed afterwards
+     * @return The byte buffer containing the pixels, see {@link Descriptor#getComponents()} for the format
+     * @throws IOException Indicates a failure to read the TGA
+     */
+    public static ByteBuffer loadImage(InputStream fis) throws IOException {
+        return loadImage(fis, false);
+    }
 
     /**
-     * Get the closest greater power of 2 to the fold number
+     * Load a TGA image from the specified stream into a new direct buffer
      *
-     * @param fold The target number
-     * @return The power of 2
+     * @param fis The stream from which we'll load the TGA, closed afterwards
+     * @param flipped True to place the bottom line first (used for cursors)
+     * @return The byte buffer containing the pixels, see {@link Descriptor#getComponents()} for the format
+     * @throws IOException Indicates a failure to read the TGA
      */
-    private static int get2Fold(int fold) {
-        int ret = 2;
-        while (ret < fold) {
-            ret *= 2;
+    public static ByteBuffer loadImage(InputStream fis, boolean flipped) throws IOException {
+        try {
+            TGALoader tga = new TGALoader(fis);
+            Descriptor d = tga.getDescriptor();
+            int stride = d.getWidth() * d.getComponents();
+            ByteBuffer scratch = BufferUtils.createByteBuffer(stride * d.getHeight());
+            if(flipped) {
+                tga.decodeFlipped(scratch, stride);
+            } else {
+                tga.decode(scratch, stride);
+            }
+            scratch.clear();
+            return scratch;
+        } finally {
+            fis.close();
         }
-        return ret;
+    }
+
+    // one row of pixels from RLE packets, which may run over from the previous row
+    private void readRLERow(byte[] row) throws IOException {
+        final int bpp = packetPixel.length;
+        int i = 0;
+        while(i < row.length) {
+            if(packetRemaining == 0) {
+                int head = read();
+                packetRepeats = (head & 0x80) != 0;
+                packetRemaining = (head & 0x7F) + 1;
+                if(packetRepeats) {
+                    readFully(packetPixel, 0, bpp);
+                }
+            }
+            int n = Math.min(packetRemaining, (row.length - i) / bpp);
+            if(packetRepeats) {
+                for(int k=0 ; k<n ; k++, i+=bpp) {
+                    System.arraycopy(packetPixel, 0, row, i, bpp);
+                }
+            } else {
+                readFully(row, i, n * bpp);
+                i += n * bpp;
+            }
+            packetRemaining -= n;
+        }
+    }
+
+    private int read() throws IOException {
+        if(bufferPos == bufferEnd) {
+            fill();
+        }
+        return buffer[bufferPos++] & 255;
+    }
+
+    @SuppressWarnings("hiding")
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(bufferPos == bufferEnd) {
+                // large reads go around the buffer
+                if(length >= this.buffer.length) {
+                    int read = input.read(buffer, offset, length);
+                    if(read < 0) {
+                        throw new EOFException();
+                    }
+                    offset += read;
+                    length -= read;
+                    continue;
+                }
+                fill();
+            }
+            int n = Math.min(length, bufferEnd - bufferPos);
+            System.arraycopy(this.buffer, bufferPos, buffer, offset, n);
+            bufferPos += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void fill() throws IOException {
+        int read = input.read(buffer, 0, buffer.length);
+        if(read < 0) {
+            throw new EOFException();
+        }
+        bufferPos = 0;
+        bufferEnd = read;
+    }
+
+    private void skip(int amount) throws IOException {
+        while(amount > 0) {
+            if(bufferPos == bufferEnd) {
+                fill();
+            }
+            int n = Math.min(amount, bufferEnd - bufferPos);
+            bufferPos += n;
+            amount -= n;
+        }
+    }
+
+    // little endian unsigned short
+    @SuppressWarnings("hiding")
+    private static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 255) | ((buffer[offset+1] & 255) << 8);
     }
 }
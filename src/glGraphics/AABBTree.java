@@ -0,0 +1,455 @@
+package glGraphics;
+
+/**
+ *
+ * Dynamic bounding volume hierarchy of axis aligned boxes, in the style of the dynamic tree of Box2D.
+ * Every leaf is a proxy for one object and stores a fat box: the object's box grown by a margin, so small
+ * movements don't change the tree. Once the object leaves its fat box, the leaf is removed and inserted again.
+ *
+ * Inserting walks down the tree choosing the child that increases the surface area the least, and every node on
+ * the way back up is rebalanced with AVL-like rotations, so the tree stays shallow no matter the insertion order.
+ *
+ * Nodes live in flat arrays, a box is 6 floats (min x,y,z, max x,y,z). Queries return proxy ids.
+ *
+ */
+
+import java.util.Arrays;
+
+import util.IntList;
+
+public class AABBTree {
+
+  private static final int NULL = -1;
+
+  private float[] box;
+  private int[] parent;
+  private int[] child1;
+  private int[] child2;
+  //0 for leaves, -1 for free nodes
+  private int[] height;
+  private Object[] data;
+
+  private int root;
+  private int freeList;
+  private int capacity;
+
+  //fat boxes are grown by this fraction of their largest extent on every side
+  private final float margin;
+
+  private int[] stack;
+  private int[] maskStack;
+
+  public AABBTree(float margin){
+    this.margin = margin;
+    root = NULL;
+    freeList = NULL;
+    capacity = 0;
+    stack = new int[64];
+    maskStack = new int[64];
+    grow(16);
+  }
+
+  public int insert(float[] aabb, Object userData){
+    int leaf = allocate();
+    setFat(leaf, aabb);
+    data[leaf] = userData;
+    height[leaf] = 0;
+    insertLeaf(leaf);
+    return leaf;
+  }
+
+  public void remove(int proxy){
+    removeLeaf(proxy);
+    free(proxy);
+  }
+
+  //returns true if the proxy left its fat box and was reinserted
+  public boolean move(int proxy, float[] aabb){
+    if(contains(proxy, aabb)) return false;
+    removeLeaf(proxy);
+    setFat(proxy, aabb);
+    insertLeaf(proxy);
+    return true;
+  }
+
+  //true if aabb lies within the fat box of the proxy
+  public boolean contains(int proxy, float[] aabb){
+    int o = proxy*6;
+    return box[o] <= aabb[0] && box[o+1] <= aabb[1] && box[o+2] <= aabb[2]
+        && box[o+3] >= aabb[3] && box[o+4] >= aabb[4] && box[o+5] >= aabb[5];
+  }
+
+  public Object getData(int proxy){
+    return data[proxy];
+  }
+
+  //proxies are below this, useful to size arrays indexed by proxy
+  public int getCapacity(){
+    return capacity;
+  }
+
+  public int getHeight(){
+    return root == NULL ? 0 : height[root];
+  }
+
+  //proxies whose fat box overlaps the given box
+  public void query(float[] aabb, IntList out){
+    if(root == NULL) return;
+    int sp = 0;
+    stack[sp++] = root;
+    while(sp > 0){
+      int n = stack[--sp];
+      int o = n*6;
+      if(box[o] > aabb[3] || box[o+1] > aabb[4] || box[o+2] > aabb[5]
+      || box[o+3] < aabb[0] || box[o+4] < aabb[1] || box[o+5] < aabb[2]){
+        continue;
+      }
+      if(height[n] == 0){
+        out.add(n);
+      }else{
+        sp = push(sp, child1[n]);
+        sp = push(sp, child2[n]);
+      }
+    }
+  }
+
+  /*
+   * proxies whose fat box is hit by the ray within maxT, as pairs of proxy and entry distance (in units of dir),
+   * sorted by that distance
+   */
+  public void raycast(float[] origin, float[] dir, float maxT, IntList out){
+    if(root == NULL) return;
+    float[] inv = {1/dir[0], 1/dir[1], 1/dir[2]};
+
+    IntList hits = new IntList(16);
+    int sp = 0;
+    stack[sp++] = root;
+    while(sp > 0){
+      int n = stack[--sp];
+      float t = slab(n, origin, dir, inv, maxT);
+      if(t < 0) continue;
+
+      if(height[n] == 0){
+        hits.add(n, Float.floatToIntBits(t));
+      }else{
+        sp = push(sp, child1[n]);
+        sp = push(sp, child2[n]);
+      }
+    }
+
+    //distances are positive, so their bits sort like the floats
+    long[] order = new long[hits.size()/2];
+    for(int i=0; i<order.length; i++) order[i] = ((long)hits.get(i*2+1) << 32) | hits.get(i*2);
+    Arrays.sort(order);
+    for(long l : order) out.add((int)l, (int)(l >>> 32));
+  }
+
+  /*
+   * proxies whose fat box is at least partly inside all planes (a, b, c, d each, normals pointing inwards), as pairs
+   * of proxy and the bit mask of the planes that cut it (0 if it is completely inside).
+   * subtrees completely inside a plane don't test it again, subtrees completely inside all of them are
+   * taken without any test
+   */
+  public void cull(float[] planes, IntList out){
+    if(root == NULL) return;
+    int planeCount = planes.length/4;
+    int sp = 0;
+    stack[sp] = root;
+    maskStack[sp++] = (1 << planeCount) - 1;
+
+    while(sp > 0){
+      int n = stack[--sp];
+      int mask = maskStack[sp];
+      int o = n*6;
+
+      float cx = (box[o]+box[o+3])/2, cy = (box[o+1]+box[o+4])/2, cz = (box[o+2]+box[o+5])/2;
+      float ex = (box[o+3]-box[o])/2, ey = (box[o+4]-box[o+1])/2, ez = (box[o+5]-box[o+2])/2;
+      boolean outside = false;
+      for(int p=0; p<planeCount && !outside; p++){
+        if((mask & (1 << p)) == 0) continue;
+        float a = planes[p*4], b = planes[p*4+1], c = planes[p*4+2];
+        float dist = a*cx + b*cy + c*cz + planes[p*4+3];
+        float rad = Math.abs(a)*ex + Math.abs(b)*ey + Math.abs(c)*ez;
+        if(dist + rad < 0) outside = true;
+        else if(dist - rad >= 0) mask &= ~(1 << p);
+      }
+      if(outside) continue;
+
+      if(mask == 0){
+        collectLeaves(n, out);
+      }else if(height[n] == 0){
+        out.add(n, mask);
+      }else{
+        sp = push(sp, child1[n]);
+        maskStack[sp-1] = mask;
+        sp = push(sp, child2[n]);
+        maskStack[sp-1] = mask;
+      }
+    }
+  }
+
+  private void collectLeaves(int n, IntList out){
+    if(height[n] == 0){
+      out.add(n, 0);
+    }else{
+      collectLeaves(child1[n], out);
+      collectLeaves(child2[n], out);
+    }
+  }
+
+  //entry distance of the ray into the box of node n, -1 if it misses
+  private float slab(int n, float[] origin, float[] dir, float[] inv, float maxT){
+    int o = n*6;
+    float tmin = Float.NEGATIVE_INFINITY, tmax = Float.POSITIVE_INFINITY;
+    for(int k=0; k<3; k++){
+      //parallel to the slab: no limit inside of it, a miss outside. 0*inf would give NaN
+      if(dir[k] == 0){
+        if(origin[k] < box[o+k] || origin[k] > box[o+k+3]) return -1;
+        continue;
+      }
+      float t0 = (box[o+k]-origin[k])*inv[k], t1 = (box[o+k+3]-origin[k])*inv[k];
+      tmin = Math.max(tmin, Math.min(t0, t1));
+      tmax = Math.min(tmax, Math.max(t0, t1));
+    }
+
+    if(tmax < Math.max(tmin, 0) || tmin > maxT) return -1;
+    return Math.max(tmin, 0);
+  }
+
+  private int push(int sp, int n){
+    if(sp == stack.length){
+      stack = Arrays.copyOf(stack, sp*2);
+      maskStack = Arrays.copyOf(maskStack, sp*2);
+    }
+    stack[sp] = n;
+    return sp+1;
+  }
+
+  private void setFat(int n, float[] aabb){
+    float m = margin * Math.max(aabb[3]-aabb[0], Math.max(aabb[4]-aabb[1], aabb[5]-aabb[2]));
+    for(int k=0; k<3; k++){
+      box[n*6+k] = aabb[k] - m;
+      box[n*6+k+3] = aabb[k+3] + m;
+    }
+  }
+
+
+  //tree maintenance, following Box2D's b2DynamicTree
+
+  private void insertLeaf(int leaf){
+    if(root == NULL){
+      root = leaf;
+      parent[leaf] = NULL;
+      return;
+    }
+
+    //find the best sibling
+    int index = root;
+    while(height[index] > 0){
+      int c1 = child1[index];
+      int c2 = child2[index];
+
+      float area = area(index, -1);
+      float combined = area(index, leaf);
+      float cost = 2*combined;
+      float inheritance = 2*(combined - area);
+
+      float cost1 = area(c1, leaf) + inheritance;
+      if(height[c1] > 0) cost1 -= area(c1, -1);
+      float cost2 = area(c2, leaf) + inheritance;
+      if(height[c2] > 0) cost2 -= area(c2, -1);
+
+      if(cost < cost1 && cost < cost2) break;
+      index = cost1 < cost2 ? c1 : c2;
+    }
+    int sibling = index;
+
+    int oldParent = parent[sibling];
+    int newParent = allocate();
+    parent[newParent] = oldParent;
+    data[newParent] = null;
+    combine(newParent, sibling, leaf);
+    height[newParent] = height[sibling]+1;
+
+    if(oldParent != NULL){
+      if(child1[oldParent] == sibling) child1[oldParent] = newParent;
+      else                             child2[oldParent] = newParent;
+    }else{
+      root = newParent;
+    }
+    child1[newParent] = sibling;
+    child2[newParent] = leaf;
+    parent[sibling] = newParent;
+    parent[leaf] = newParent;
+
+    refitFrom(parent[leaf]);
+  }
+
+  private void removeLeaf(int leaf){
+    if(leaf == root){
+      root = NULL;
+      return;
+    }
+
+    int p = parent[leaf];
+    int grandParent = parent[p];
+    int sibling = child1[p] == leaf ? child2[p] : child1[p];
+
+    if(grandParent != NULL){
+      if(child1[grandParent] == p) child1[grandParent] = sibling;
+      else                         child2[grandParent] = sibling;
+      parent[sibling] = grandParent;
+      free(p);
+      refitFrom(grandParent);
+    }else{
+      root = sibling;
+      parent[sibling] = NULL;
+      free(p);
+    }
+  }
+
+  //rebalances and recomputes boxes and heights from n up to the root
+  private void refitFrom(int n){
+    while(n != NULL){
+      n = balance(n);
+      height[n] = 1 + Math.max(height[child1[n]], height[child2[n]]);
+      combine(n, child1[n], child2[n]);
+      n = parent[n];
+    }
+  }
+
+  //rotates the higher grandchild up if the children of a differ in height by more than 1. returns the new subtree root
+  private int balance(int a){
+    if(height[a] < 2) return a;
+
+    int b = child1[a];
+    int c = child2[a];
+    int diff = height[c] - height[b];
+
+    if(diff > 1){
+      int f = child1[c];
+      int g = child2[c];
+
+      child1[c] = a;
+      parent[c] = parent[a];
+      parent[a] = c;
+      replaceChild(parent[c], a, c);
+
+      if(height[f] > height[g]){
+        child2[c] = f;
+        child2[a] = g;
+        parent[g] = a;
+        combine(a, b, g);
+        combine(c, a, f);
+        height[a] = 1 + Math.max(height[b], height[g]);
+        height[c] = 1 + Math.max(height[a], height[f]);
+      }else{
+        child2[c] = g;
+        child2[a] = f;
+        parent[f] = a;
+        combine(a, b, f);
+        combine(c, a, g);
+        height[a] = 1 + Math.max(height[b], height[f]);
+        height[c] = 1 + Math.max(height[a], height[g]);
+      }
+      return c;
+    }
+
+    if(diff < -1){
+      int d = child1[b];
+      int e = child2[b];
+
+      child1[b] = a;
+      parent[b] = parent[a];
+      parent[a] = b;
+      replaceChild(parent[b], a, b);
+
+      if(height[d] > height[e]){
+        child2[b] = d;
+        child1[a] = e;
+        parent[e] = a;
+        combine(a, c, e);
+        combine(b, a, d);
+        height[a] = 1 + Math.max(height[c], height[e]);
+        height[b] = 1 + Math.max(height[a], height[d]);
+      }else{
+        child2[b] = e;
+        child1[a] = d;
+        parent[d] = a;
+        combine(a, c, d);
+        combine(b, a, e);
+        height[a] = 1 + Math.max(height[c], height[d]);
+        height[b] = 1 + Math.max(height[a], height[e]);
+      }
+      return b;
+    }
+    return a;
+  }
+
+  private void replaceChild(int p, int oldChild, int newChild){
+    if(p == NULL){
+      root = newChild;
+    }else if(child1[p] == oldChild){
+      child1[p] = newChild;
+    }else{
+      child2[p] = newChild;
+    }
+  }
+
+  private void combine(int dst, int a, int b){
+    for(int k=0; k<3; k++){
+      box[dst*6+k] = Math.min(box[a*6+k], box[b*6+k]);
+      box[dst*6+k+3] = Math.max(box[a*6+k+3], box[b*6+k+3]);
+    }
+  }
+
+  //surface area of the box of a, or of the box around a and b
+  private float area(int a, int b){
+    float dx, dy, dz;
+    if(b < 0){
+      dx = box[a*6+3]-box[a*6];
+      dy = box[a*6+4]-box[a*6+1];
+      dz = box[a*6+5]-box[a*6+2];
+    }else{
+      dx = Math.max(box[a*6+3], box[b*6+3]) - Math.min(box[a*6], box[b*6]);
+      dy = Math.max(box[a*6+4], box[b*6+4]) - Math.min(box[a*6+1], box[b*6+1]);
+      dz = Math.max(box[a*6+5], box[b*6+5]) - Math.min(box[a*6+2], box[b*6+2]);
+    }
+    return 2*(dx*dy + dy*dz + dz*dx);
+  }
+
+  private int allocate(){
+    if(freeList == NULL) grow(capacity*2);
+    int n = freeList;
+    freeList = parent[n];
+    parent[n] = NULL;
+    child1[n] = NULL;
+    child2[n] = NULL;
+    height[n] = 0;
+    return n;
+  }
+
+  private void free(int n){
+    parent[n] = freeList;
+    height[n] = -1;
+    data[n] = null;
+    freeList = n;
+  }
+
+  private void grow(int n){
+    box = box == null ? new float[n*6] : Arrays.copyOf(box, n*6);
+    parent = parent == null ? new int[n] : Arrays.copyOf(parent, n);
+    child1 = child1 == null ? new int[n] : Arrays.copyOf(child1, n);
+    child2 = child2 == null ? new int[n] : Arrays.copyOf(child2, n);
+    height = height == null ? new int[n] : Arrays.copyOf(height, n);
+    data = data == null ? new Object[n] : Arrays.copyOf(data, n);
+
+    //chain the new nodes into the free list
+    for(int i=capacity; i<n; i++){
+      parent[i] = i+1 < n ? i+1 : freeList;
+      height[i] = -1;
+    }
+    freeList = capacity;
+    capacity = n;
+  }
+}
@@ -36,6 +36,7 @@ import util.Ref;
 import util.SimpleLogger;
 import util.Vector2i;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -51,6 +52,7 @@ import messaging.Messenger;
 
 import org.lwjgl.LWJGLException;
 import org.lwjgl.input.Keyboard;
+import org.lwjgl.input.Mouse;
 import org.lwjgl.opengl.ContextAttribs;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
@@ -91,6 +93,8 @@ public class AppWindow implements Handler{
   
   private long stamp;
   private long frames;
+  //log the render stats after this frame
+  private boolean statsDue;
   
   private int maxLod;
   
@@ -133,20 +137,21 @@ public class AppWindow implements Handler{
     
     ip = new InputHandler();
 
-    Construct c = new Construct("res/models/stone.obj");
-    cid = glx.registerConstruct(c);
+    //loaded in the background, each one shows up once it's on the gpu
+    cid = glx.registerConstructAsync("res/models/stone.obj");
+    Construct c = glx.getConstruct(cid);
     
     c.scale = new Vector3f(1f, 1f, 1f);
     
     float x = 1e2f;
     
-    c = new Construct("res/models/plane.obj");
-    pid = glx.registerConstruct(c);
+    pid = glx.registerConstructAsync("res/models/plane.obj");
+    c = glx.getConstruct(pid);
     c.scale = new Vector3f(x,x,1);
     c.position = new Vector3f(0,0,-1);
     
-    c = new Construct("res/models/cube.obj");
-    cube = glx.registerConstruct(c);
+    cube = glx.registerConstructAsync("res/models/cube.obj");
+    c = glx.getConstruct(cube);
 
     c.scale = new Vector3f(10,10,10);
   }
@@ -170,11 +175,11 @@ public class AppWindow implements Handler{
     glEnable(GL_MULTISAMPLE);
     glEnable(GL11.GL_TEXTURE_2D);
     glEnable(GL_TEXTURE_CUBE_MAP_SEAMLESS);
-    glEnable(GL_DEPTH_TEST);
+    GLState.depthTest(true);
     //glDisable(GL_CULL_FACE);
     
-    glEnable(GL_BLEND);
-    glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+    GLState.blend(true);
+    GLState.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
     glBlendEquation(GL_FUNC_ADD);
     
     updateMaxLod();
@@ -278,10 +283,29 @@ public class AppWindow implements Handler{
   private void loadTextures(){
     textures = new HashMap<>();
 
-    textures.put("color", new Texture2D("res/texture/stone.png"));
-    textures.put("lava", new Texture2D("res/texture/stone.png"));
-    textures.put("sky", new TextureCM("res/texture/skyBox/box"));
-    textures.put("heat", new Texture1D("res/texture/heat.png"));
+    //decode everything in parallel first, the textures below then only upload
+    long t0 = System.nanoTime();
+    if(Ref.compressTextures && BCEncoder.supported(Ref.textureFormat)){
+      TextureLoader.prefetchCompressed(Ref.textureFormat, "res/texture/stone.png");
+    }else{
+      TextureLoader.prefetchMips("res/texture/stone.png");
+    }
+    TextureLoader.prefetch("res/texture/stone.png");
+    TextureLoader.prefetchMips1D("res/texture/heat.png");
+    TextureLoader.prefetchCube("res/texture/skyBox/box");
+    
+    //lava samples the same image through its layer of an array
+    try{
+      textures.put("lava", new TextureArray("res/texture/stone.png"));
+    }catch(IOException e){
+      throw new IllegalStateException("can't load the lava texture: "+e, e);
+    }
+    AssetCache ac = glx.getAssetCache();
+    textures.put("color", ac.texture2D("res/texture/stone.png"));
+    textures.put("sky", ac.textureCM("res/texture/skyBox/box"));
+    textures.put("heat", ac.texture1D("res/texture/heat.png"));
+    ac.logStats();
+    SimpleLogger.log("textures loaded in "+(System.nanoTime()-t0)/1000000+"ms", 1, this.getClass(), "loadTextures");
   }
   
   private void run(){
@@ -305,6 +329,13 @@ public class AppWindow implements Handler{
       }
       
       render();
+      glx.endFrame();
+      GLState.endFrame();
+      if(statsDue){
+        glx.logStats();
+        GLState.logStats();
+        statsDue = false;
+      }
       Display.update();
       Display.sync(Ref.maxFPS);
       
@@ -323,6 +354,7 @@ public class AppWindow implements Handler{
     if(System.currentTimeMillis() - stamp > 1000){
       Display.setTitle("Stone  ||  FPS: "+frames);
       frames = 0;
+      statsDue = true;
       stamp = System.currentTimeMillis();
     }
     frames++;
@@ -338,7 +370,8 @@ public class AppWindow implements Handler{
     glx.drawConstruct(cid, shaders.get("stone"),   new Texture[]{textures.get("color"),
                                      textures.get("lava"),
                                      textures.get("sky"),
-                                     textures.get("heat")});
+                                     textures.get("heat")},
+                                     ((TextureArray)textures.get("lava")).getLayer("res/texture/stone.png"));
 
     //draw geometry to target 0
     fbm.setSourceRender();
@@ -390,6 +423,7 @@ public class AppWindow implements Handler{
     glx.drawText(10, 10, String.format("[E,R] Glow Quality: %d", gq).replace(",","."), col);
     glx.drawText(10, 50, String.format("[D,F] Heat: %.3f (%.3f)", heat, heatLimit).replace(",","."), col);
     glx.drawText(10, 90, String.format("[C,V] Exposure: %.3f (%.3f)", exposure, expLimit).replace(",","."), col);
+    glx.drawText(10, 130, "[LMB] Picked: "+picked, col);
 
     glx.execute();
 
@@ -403,7 +437,7 @@ public class AppWindow implements Handler{
     //however, the JVM crashes, if the buffer is too short. I found no downside to having a bigger buffer,
     //so its on the safe side
     FloatBuffer fb = (ByteBuffer.allocateDirect(1024).order(ByteOrder.nativeOrder())).asFloatBuffer();
-    glActiveTexture(GL_TEXTURE11);
+    GLState.activeTexture(11);
     glGetTexImage(GL11.GL_TEXTURE_2D, maxLod, GL_RGBA, GL_FLOAT, fb);
     fb = fb.asReadOnlyBuffer();
     float r = fb.get();
@@ -439,6 +473,7 @@ public class AppWindow implements Handler{
     glx.waitForRelease();
     
     glx.deconstructAll();
+    textures.get("lava").release();
     fbm.releaseAll();
     for(ShaderWrapper sw : shaders.values()){
       sw.releaseShader();
@@ -458,11 +493,23 @@ public class AppWindow implements Handler{
   }
   
   boolean pressing;
+  String picked = "nothing";
   private void handleMouse(Message m){
     RW_MS_Param p = (RW_MS_Param)m.getParam();
     
     if(p.pressed && p.button==0){
       pressing = true;
+      
+      //select whatever is under the cursor, straight from the cpu side geometry
+      long t0 = System.nanoTime();
+      PickResult pr = glx.pick(Mouse.getX(), Mouse.getY());
+      if(pr == null){
+        picked = "nothing";
+      }else{
+        String name = pr.getConstruct().equals(cid) ? "stone" : pr.getConstruct().equals(pid) ? "plane" : "sky";
+        picked = String.format("%s, tri %d at %.2f", name, pr.getTriangle(), pr.getDistance()).replace(",",".");
+      }
+      SimpleLogger.log("picked "+picked+" in "+(System.nanoTime()-t0)/1000+"us", 10, this.getClass(), "handleMouse");
     }else if(!p.pressed && p.button==0){
       pressing = false;
     }
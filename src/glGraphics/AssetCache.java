@@ -0,0 +1,219 @@
+package glGraphics;
+
+/**
+ *
+ * Reference counted cache for Textures and Meshes. Assets are keyed by kind, canonical path and the options that
+ * change the result, so requesting the same file twice returns the same object, decoded and uploaded only once.
+ * Every request has to be matched by a release(); the gpu object is deleted when the last user releases it.
+ *
+ * Meshes may be requested from loader threads. Concurrent requests for the same mesh wait for the first one
+ * instead of loading it again. Textures are created on the GL thread like before.
+ *
+ * With a TextureResidency set, every texture created here is added to it, together with a way to load it again after
+ * it was evicted.
+ *
+ * Hits and the bytes they saved (decode and gpu memory) are counted, see logStats().
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import util.Ref;
+import util.SimpleLogger;
+
+public class AssetCache {
+
+  private static class Entry{
+    private String key;
+    private FutureTask<Object> task;
+    private int refs;
+
+    public Entry(String k, Callable<Object> load){
+      key = k;
+      task = new FutureTask<>(load);
+    }
+  }
+
+  private HashMap<String, Entry> entries;
+  private IdentityHashMap<Object, Entry> byAsset;
+
+  private TextureResidency residency;
+
+  private int requests;
+  private int hits;
+  private long bytesSaved;
+
+  public AssetCache(){
+    entries = new HashMap<>();
+    byAsset = new IdentityHashMap<>();
+  }
+
+  public void setResidency(TextureResidency r){
+    residency = r;
+  }
+
+  public Texture2D texture2D(final String fn){
+    return (Texture2D)getTexture("tex2d:"+canonical(fn)+"#aniso="+Ref.aniso+"#bc="+(Ref.compressTextures ? Ref.textureFormat : -1), new Callable<Object>(){
+      @Override
+      public Object call(){
+        return track(new Texture2D(fn), fn, new TextureResidency.Loader(){
+          @Override
+          public void load(Texture t){
+            ((Texture2D)t).load(fn);
+          }
+        });
+      }
+    });
+  }
+
+  public TextureCM textureCM(final String fn){
+    return (TextureCM)getTexture("texcm:"+canonical(fn)+"#aniso="+Ref.aniso, new Callable<Object>(){
+      @Override
+      public Object call(){
+        return track(new TextureCM(fn), fn, new TextureResidency.Loader(){
+          @Override
+          public void load(Texture t){
+            ((TextureCM)t).load(fn);
+          }
+        });
+      }
+    });
+  }
+
+  public Texture1D texture1D(final String fn){
+    return (Texture1D)getTexture("tex1d:"+canonical(fn), new Callable<Object>(){
+      @Override
+      public Object call(){
+        return track(new Texture1D(fn), fn, new TextureResidency.Loader(){
+          @Override
+          public void load(Texture t){
+            ((Texture1D)t).load(fn);
+          }
+        });
+      }
+    });
+  }
+
+  public Mesh mesh(final String fn) throws IOException{
+    try{
+      return (Mesh)get("mesh:"+canonical(fn)+"#flags="+MeshLoader.getFlags(), new Callable<Object>(){
+        @Override
+        public Object call() throws IOException{
+          return MeshLoader.load(fn);
+        }
+      });
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  //drops one reference. the last one deletes the gpu object. assets that don't come from this cache are ignored
+  public void release(Object asset){
+    Entry e;
+    synchronized(this){
+      e = byAsset.get(asset);
+      if(e == null || --e.refs > 0) return;
+      byAsset.remove(asset);
+      entries.remove(e.key);
+    }
+
+    if(asset instanceof Texture){
+      if(residency != null) residency.remove((Texture)asset);
+      ((Texture)asset).release();
+    }
+    //a mesh deletes its buffers once the last construct using it releases them
+    SimpleLogger.log("released "+e.key, 10, AssetCache.class, "release");
+  }
+
+  public synchronized int getRequests(){
+    return requests;
+  }
+
+  public synchronized int getHits(){
+    return hits;
+  }
+
+  public synchronized long getBytesSaved(){
+    return bytesSaved;
+  }
+
+  public synchronized void logStats(){
+    SimpleLogger.log("asset cache: "+hits+"/"+requests+" hits, "+bytesSaved+" bytes saved, "+entries.size()+" assets", 1, AssetCache.class, "logStats");
+  }
+
+  private Texture track(Texture t, String fn, TextureResidency.Loader l){
+    if(residency != null) residency.add(t, fn, l);
+    return t;
+  }
+
+  private Texture getTexture(String key, Callable<Object> load){
+    try{
+      return (Texture)get(key, load);
+    }catch(ExecutionException e){
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  //the first request for a key loads, outside of the lock. later ones wait for it and share the result
+  private Object get(String key, Callable<Object> load) throws ExecutionException{
+    Entry e;
+    boolean first = false;
+    synchronized(this){
+      requests++;
+      e = entries.get(key);
+      if(e == null){
+        e = new Entry(key, load);
+        entries.put(key, e);
+        first = true;
+      }
+      e.refs++;
+    }
+
+    if(first) e.task.run();
+
+    Object asset;
+    try{
+      asset = e.task.get();
+    }catch(InterruptedException x){
+      Thread.currentThread().interrupt();
+      throw new ExecutionException(x);
+    }catch(ExecutionException x){
+      //failed loads are not cached
+      synchronized(this){
+        if(--e.refs == 0 && entries.get(key) == e) entries.remove(key);
+      }
+      throw x;
+    }
+
+    synchronized(this){
+      //a waiting request may finish before the loading one gets here
+      if(!byAsset.containsKey(asset)) byAsset.put(asset, e);
+      if(!first){
+        hits++;
+        bytesSaved += byteSize(asset);
+      }
+    }
+    return asset;
+  }
+
+  private static long byteSize(Object asset){
+    if(asset instanceof Texture) return ((Texture)asset).getByteSize();
+    if(asset instanceof Mesh) return ((Mesh)asset).getByteSize();
+    return 0;
+  }
+
+  private static String canonical(String fn){
+    try{
+      return new File(fn).getCanonicalPath();
+    }catch(IOException e){
+      return new File(fn).getAbsolutePath();
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package glGraphics;
+
+/**
+ *
+ * Block compression of RGBA images into the formats gpus sample directly. Every 4x4 pixel block becomes
+ * 8 bytes (BC1) or 16 bytes (BC3, BC5, BC7), against 64 bytes uncompressed.
+ *
+ *   BC1  rgb, two 565 endpoints and 2 bit indices. for opaque images
+ *   BC3  BC1 color plus a BC4 block for alpha
+ *   BC5  two BC4 blocks for red and green, e.g. normal maps
+ *   BC7  mode 6 only: rgba endpoints with 7 bits plus a shared low bit each, 4 bit indices
+ *
+ * Endpoints come from the bounding box of the block colors, with its diagonal picked by the sign of the
+ * covariances (BC1) or from the principal axis of the colors (BC7). Indices are the nearest palette entry.
+ * Blocks on the border of images that aren't a multiple of 4 repeat their last pixels. Block rows are encoded
+ * in parallel.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lwjgl.opengl.ARBTextureCompressionBPTC;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GLContext;
+
+public class BCEncoder {
+
+  //BC1 for opaque images, BC3 otherwise
+  public static final int AUTO = 0;
+  public static final int BC1 = 1;
+  public static final int BC3 = 3;
+  public static final int BC5 = 5;
+  public static final int BC7 = 7;
+
+  private static final int[] BC7_WEIGHTS = {0, 4, 9, 13, 17, 21, 26, 30, 34, 38, 43, 47, 51, 55, 60, 64};
+
+  public static int resolve(int format, TextureLoader.Image img){
+    if(format != AUTO) return format;
+    for(int i=3; i<img.pixels.capacity(); i+=4){
+      if(img.pixels.get(i) != (byte)255) return BC3;
+    }
+    return BC1;
+  }
+
+  public static int glFormat(int format){
+    switch(format){
+    case BC1: return EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+    case BC3: return EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+    case BC5: return GL30.GL_COMPRESSED_RG_RGTC2;
+    case BC7: return ARBTextureCompressionBPTC.GL_COMPRESSED_RGBA_BPTC_UNORM_ARB;
+    default: throw new IllegalArgumentException("unknown block format "+format);
+    }
+  }
+
+  //whether the current context can sample format. needs a GL context
+  public static boolean supported(int format){
+    ContextCapabilities caps = GLContext.getCapabilities();
+    switch(format){
+    case AUTO:
+    case BC1:
+    case BC3: return caps.GL_EXT_texture_compression_s3tc;
+    case BC5: return caps.OpenGL30;
+    case BC7: return caps.GL_ARB_texture_compression_bptc || caps.OpenGL42;
+    default: return false;
+    }
+  }
+
+  public static int blockSize(int format){
+    return format == BC1 ? 8 : 16;
+  }
+
+  public static int compressedSize(int format, int w, int h){
+    return ((w+3)/4) * ((h+3)/4) * blockSize(format);
+  }
+
+  //format must not be AUTO
+  public static ByteBuffer encode(final TextureLoader.Image img, final int format){
+    final int bw = (img.width+3)/4;
+    final int bh = (img.height+3)/4;
+    final int bs = blockSize(format);
+    final ByteBuffer out = ByteBuffer.allocateDirect(bw*bh*bs).order(ByteOrder.LITTLE_ENDIAN);
+
+    MipGenerator.forRows(bh, new MipGenerator.RowTask(){
+      @Override
+      public void run(int begin, int end){
+        int[] px = new int[64];
+        byte[] block = new byte[16];
+        for(int by=begin; by<end; by++){
+          for(int bx=0; bx<bw; bx++){
+            fetch(img, bx*4, by*4, px);
+            switch(format){
+            case BC1: encodeColor(px, block, 0); break;
+            case BC3: encodeChannel(px, 3, block, 0); encodeColor(px, block, 8); break;
+            case BC5: encodeChannel(px, 0, block, 0); encodeChannel(px, 1, block, 8); break;
+            case BC7: encodeMode6(px, block); break;
+            default: throw new IllegalArgumentException("unknown block format "+format);
+            }
+            for(int i=0; i<bs; i++) out.put((by*bw+bx)*bs+i, block[i]);
+          }
+        }
+      }
+    });
+    return out;
+  }
+
+  //16 pixels of 4 channels, clamped to the image
+  private static void fetch(TextureLoader.Image img, int x0, int y0, int[] px){
+    for(int y=0; y<4; y++){
+      int sy = Math.min(y0+y, img.height-1);
+      for(int x=0; x<4; x++){
+        int sx = Math.min(x0+x, img.width-1);
+        int o = (sy*img.width+sx)*4;
+        for(int c=0; c<4; c++) px[(y*4+x)*4+c] = img.pixels.get(o+c) & 0xff;
+      }
+    }
+  }
+
+  //BC1 color block, always in 4 color mode
+  static void encodeColor(int[] px, byte[] out, int off){
+    int[] min = {255, 255, 255};
+    int[] max = {0, 0, 0};
+    float[] mean = new float[3];
+    for(int i=0; i<16; i++){
+      for(int c=0; c<3; c++){
+        int v = px[i*4+c];
+        min[c] = Math.min(min[c], v);
+        max[c] = Math.max(max[c], v);
+        mean[c] += v/16f;
+      }
+    }
+
+    //the box diagonal running along the colors: flip green and blue, if they fall while red rises
+    float covRG = 0, covRB = 0;
+    for(int i=0; i<16; i++){
+      float r = px[i*4]-mean[0];
+      covRG += r*(px[i*4+1]-mean[1]);
+      covRB += r*(px[i*4+2]-mean[2]);
+    }
+    if(covRG < 0){ int t = min[1]; min[1] = max[1]; max[1] = t; }
+    if(covRB < 0){ int t = min[2]; min[2] = max[2]; max[2] = t; }
+
+    //inset the box a bit, the extremes are rarely worth an endpoint
+    int[] e0 = new int[3], e1 = new int[3];
+    for(int c=0; c<3; c++){
+      int inset = (max[c]-min[c]) / 16;
+      e0[c] = max[c] - inset;
+      e1[c] = min[c] + inset;
+    }
+
+    int c0 = to565(e0);
+    int c1 = to565(e1);
+    if(c0 < c1){
+      int t = c0; c0 = c1; c1 = t;
+    }
+
+    int indices = 0;
+    if(c0 != c1){
+      int[][] pal = new int[4][];
+      pal[0] = from565(c0);
+      pal[1] = from565(c1);
+      pal[2] = new int[3];
+      pal[3] = new int[3];
+      for(int c=0; c<3; c++){
+        pal[2][c] = (2*pal[0][c] + pal[1][c]) / 3;
+        pal[3][c] = (pal[0][c] + 2*pal[1][c]) / 3;
+      }
+      for(int i=0; i<16; i++){
+        int best = 0, bestD = Integer.MAX_VALUE;
+        for(int p=0; p<4; p++){
+          int d = 0;
+          for(int c=0; c<3; c++){
+            int diff = px[i*4+c] - pal[p][c];
+            d += diff*diff;
+          }
+          if(d < bestD){
+            bestD = d;
+            best = p;
+          }
+        }
+        indices |= best << (i*2);
+      }
+    }
+
+    out[off]   = (byte)c0;
+    out[off+1] = (byte)(c0 >> 8);
+    out[off+2] = (byte)c1;
+    out[off+3] = (byte)(c1 >> 8);
+    for(int k=0; k<4; k++) out[off+4+k] = (byte)(indices >> (k*8));
+  }
+
+  //BC4 block of one channel: endpoints are its min and max, with 6 values in between
+  static void encodeChannel(int[] px, int channel, byte[] out, int off){
+    int min = 255, max = 0;
+    for(int i=0; i<16; i++){
+      min = Math.min(min, px[i*4+channel]);
+      max = Math.max(max, px[i*4+channel]);
+    }
+
+    long bits = 0;
+    if(max > min){
+      int[] pal = new int[8];
+      pal[0] = max;
+      pal[1] = min;
+      for(int k=1; k<7; k++) pal[k+1] = ((7-k)*max + k*min) / 7;
+
+      for(int i=0; i<16; i++){
+        int v = px[i*4+channel];
+        int best = 0, bestD = Integer.MAX_VALUE;
+        for(int p=0; p<8; p++){
+          int d = Math.abs(v - pal[p]);
+          if(d < bestD){
+            bestD = d;
+            best = p;
+          }
+        }
+        bits |= (long)best << (i*3);
+      }
+    }
+
+    out[off]   = (byte)max;
+    out[off+1] = (byte)min;
+    for(int k=0; k<6; k++) out[off+2+k] = (byte)(bits >> (k*8));
+  }
+
+  //BC7 mode 6: one subset, rgba endpoints 7.7.7.7 plus a low bit per endpoint, 4 bit indices
+  static void encodeMode6(int[] px, byte[] out){
+    float[] mean = new float[4];
+    for(int i=0; i<16; i++){
+      for(int c=0; c<4; c++) mean[c] += px[i*4+c]/16f;
+    }
+
+    //principal axis of the colors by power iteration on their covariance
+    float[] cov = new float[16];
+    for(int i=0; i<16; i++){
+      for(int a=0; a<4; a++){
+        float da = px[i*4+a]-mean[a];
+        for(int b=0; b<4; b++) cov[a*4+b] += da*(px[i*4+b]-mean[b]);
+      }
+    }
+    float[] axis = {1, 1, 1, 1};
+    for(int it=0; it<8; it++){
+      float[] n = new float[4];
+      float len = 0;
+      for(int a=0; a<4; a++){
+        for(int b=0; b<4; b++) n[a] += cov[a*4+b]*axis[b];
+        len += n[a]*n[a];
+      }
+      if(len < 1e-12f) break;
+      len = (float)Math.sqrt(len);
+      for(int a=0; a<4; a++) axis[a] = n[a]/len;
+    }
+
+    float tmin = Float.MAX_VALUE, tmax = -Float.MAX_VALUE;
+    for(int i=0; i<16; i++){
+      float t = 0;
+      for(int c=0; c<4; c++) t += (px[i*4+c]-mean[c])*axis[c];
+      tmin = Math.min(tmin, t);
+      tmax = Math.max(tmax, t);
+    }
+
+    //quantize both endpoints, trying both low bits
+    int[] q0 = new int[4], q1 = new int[4];
+    int p0 = quantize7p(mean, axis, tmin, q0);
+    int p1 = quantize7p(mean, axis, tmax, q1);
+
+    int[][] pal = new int[16][4];
+    for(int k=0; k<16; k++){
+      for(int c=0; c<4; c++){
+        int a = (q0[c] << 1) | p0;
+        int b = (q1[c] << 1) | p1;
+        pal[k][c] = ((64-BC7_WEIGHTS[k])*a + BC7_WEIGHTS[k]*b + 32) >> 6;
+      }
+    }
+
+    int[] idx = new int[16];
+    for(int i=0; i<16; i++){
+      int best = 0, bestD = Integer.MAX_VALUE;
+      for(int k=0; k<16; k++){
+        int d = 0;
+        for(int c=0; c<4; c++){
+          int diff = px[i*4+c] - pal[k][c];
+          d += diff*diff;
+        }
+        if(d < bestD){
+          bestD = d;
+          best = k;
+        }
+      }
+      idx[i] = best;
+    }
+
+    //the first index is stored with 3 bits, so its top bit has to be 0. swap the endpoints if it isn't
+    if(idx[0] >= 8){
+      int[] t = q0; q0 = q1; q1 = t;
+      int tp = p0; p0 = p1; p1 = tp;
+      for(int i=0; i<16; i++) idx[i] = 15-idx[i];
+    }
+
+    long[] bits = new long[2];
+    int pos = put(bits, 0, 1 << 6, 7);
+    for(int c=0; c<4; c++){
+      pos = put(bits, pos, q0[c], 7);
+      pos = put(bits, pos, q1[c], 7);
+    }
+    pos = put(bits, pos, p0, 1);
+    pos = put(bits, pos, p1, 1);
+    pos = put(bits, pos, idx[0], 3);
+    for(int i=1; i<16; i++) pos = put(bits, pos, idx[i], 4);
+
+    for(int k=0; k<8; k++){
+      out[k]   = (byte)(bits[0] >>> (k*8));
+      out[k+8] = (byte)(bits[1] >>> (k*8));
+    }
+  }
+
+  //7 bit endpoint for mean + axis*t in q, returns the low bit that fits it best
+  private static int quantize7p(float[] mean, float[] axis, float t, int[] q){
+    int bestP = 0;
+    int bestErr = Integer.MAX_VALUE;
+    int[] tmp = new int[4];
+    for(int p=0; p<2; p++){
+      int err = 0;
+      for(int c=0; c<4; c++){
+        float v = Math.max(0, Math.min(255, mean[c] + axis[c]*t));
+        int qc = Math.max(0, Math.min(127, Math.round((v - p)/2)));
+        tmp[c] = qc;
+        int diff = Math.round(v) - ((qc << 1) | p);
+        err += diff*diff;
+      }
+      if(err < bestErr){
+        bestErr = err;
+        bestP = p;
+        System.arraycopy(tmp, 0, q, 0, 4);
+      }
+    }
+    return bestP;
+  }
+
+  //writes the lowest n bits of v at bit pos of a 128 bit little endian block
+  private static int put(long[] bits, int pos, int v, int n){
+    for(int i=0; i<n; i++, pos++){
+      if(((v >> i) & 1) != 0) bits[pos >> 6] |= 1L << (pos & 63);
+    }
+    return pos;
+  }
+
+  private static int to565(int[] c){
+    return ((c[0]*31+127)/255 << 11) | ((c[1]*63+127)/255 << 5) | ((c[2]*31+127)/255);
+  }
+
+  private static int[] from565(int v){
+    int r = (v >> 11) & 31, g = (v >> 5) & 63, b = v & 31;
+    return new int[]{(r << 3) | (r >> 2), (g << 2) | (g >> 4), (b << 3) | (b >> 2)};
+  }
+}
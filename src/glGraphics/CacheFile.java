@@ -0,0 +1,155 @@
+package glGraphics;
+
+/**
+ *
+ * File handling shared by the binary caches (MeshCache, TextureCache). Each cache file starts with its own header
+ * and holds a source stamp somewhere in it: the mtime, size and hash of the file it was built from, 3 longs.
+ *
+ * Cache files are named after a hash of the canonical path of their source (plus the plain file name, to find them
+ * by hand), so sources with similar paths never share one.
+ *
+ * Reading maps the file read-only, the mapping lives on in the returned buffers. A source that was only touched
+ * keeps its cache entry, the new mtime is written through a separate short-lived channel. Writing goes to a temp
+ * file that is moved over the old one, so a crash never leaves a half written cache behind. While the old file is
+ * still mapped, Windows refuses to replace it; the old file then stays, fails validation against the changed
+ * source next time, and is replaced once nothing maps it anymore.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import util.SimpleLogger;
+
+public class CacheFile {
+
+  //the cache file of src in dir, ending in suffix
+  public static File of(String dir, File src, String suffix){
+    String path;
+    try{
+      path = src.getCanonicalPath();
+    }catch(IOException e){
+      path = src.getAbsolutePath();
+    }
+    long h = 0xcbf29ce484222325L;
+    for(byte b : path.getBytes(StandardCharsets.UTF_8)){
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    return new File(dir, src.getName()+"-"+String.format("%016x", h)+suffix);
+  }
+
+  //the whole file mapped read-only, in little endian. null if it doesn't exist or is shorter than minSize
+  public static MappedByteBuffer map(File cf, int minSize) throws IOException{
+    if(!cf.isFile()) return null;
+    try(FileChannel ch = FileChannel.open(cf.toPath(), StandardOpenOption.READ)){
+      if(ch.size() < minSize) return null;
+      MappedByteBuffer map = ch.map(MapMode.READ_ONLY, 0, ch.size());
+      map.order(ByteOrder.LITTLE_ENDIAN);
+      return map;
+    }
+  }
+
+  public static void putStamp(ByteBuffer head, File src) throws IOException{
+    head.putLong(src.lastModified());
+    head.putLong(src.length());
+    head.putLong(hash(src));
+  }
+
+  /*
+   * reads the stamp at the current position of map and checks it against src. if only the mtime differs and the
+   * content hashes the same, the new mtime is written into cf, so the source doesn't get hashed again
+   */
+  public static boolean checkStamp(File cf, ByteBuffer map, File src) throws IOException{
+    int at = map.position();
+    long mtime = map.getLong();
+    long size = map.getLong();
+    long hash = map.getLong();
+    if(mtime == src.lastModified() && size == src.length()) return true;
+    if(size != src.length() || hash != hash(src)) return false;
+
+    try(FileChannel ch = FileChannel.open(cf.toPath(), StandardOpenOption.WRITE)){
+      ByteBuffer mt = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      mt.putLong(0, src.lastModified());
+      while(mt.hasRemaining()) ch.write(mt, at + mt.position());
+      SimpleLogger.log(src+" touched but unchanged, cache kept", 10, CacheFile.class, "checkStamp");
+    }catch(IOException e){
+      SimpleLogger.log("Warning: can't refresh "+cf+": "+e, 0, CacheFile.class, "checkStamp");
+    }
+    return true;
+  }
+
+  //blocks[i] goes to offsets[i]. the buffers are read from their position on and left unchanged
+  public static void write(File cf, ByteBuffer[] blocks, long[] offsets) throws IOException{
+    File dir = cf.getParentFile();
+    if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("can't create "+dir);
+
+    File tmp = new File(dir, cf.getName()+".tmp");
+    try(FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+      for(int i=0; i<blocks.length; i++){
+        ByteBuffer b = blocks[i].duplicate();
+        long pos = offsets[i];
+        while(b.hasRemaining()) pos += ch.write(b, pos);
+      }
+    }
+
+    try{
+      try{
+        Files.move(tmp.toPath(), cf.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }catch(AtomicMoveNotSupportedException e){
+        Files.move(tmp.toPath(), cf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }catch(IOException e){
+      SimpleLogger.log("Warning: can't replace "+cf+", still in use? "+e, 0, CacheFile.class, "write");
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  //64 bit FNV-1a style hash over the mapped source file, 8 bytes at a time
+  public static long hash(File f) throws IOException{
+    try(FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+      long h = 0xcbf29ce484222325L;
+      long pos = 0;
+      long size = ch.size();
+
+      while(pos < size){
+        long len = Math.min(size-pos, Integer.MAX_VALUE & ~7);
+        MappedByteBuffer map = ch.map(MapMode.READ_ONLY, pos, len);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        while(map.remaining() >= 8){
+          h ^= map.getLong();
+          h *= 0x100000001b3L;
+          h ^= h >>> 29;
+        }
+        while(map.hasRemaining()){
+          h ^= map.get() & 0xff;
+          h *= 0x100000001b3L;
+        }
+        pos += len;
+      }
+      return h ^ size;
+    }
+  }
+
+  //bytes off to off+len of map as their own buffer
+  public static ByteBuffer slice(ByteBuffer map, long off, long len){
+    ByteBuffer b = map.duplicate();
+    b.position((int)off);
+    b.limit((int)(off+len));
+    return b.slice();
+  }
+
+  public static long align(long v){
+    return (v + 15) & ~15L;
+  }
+}
@@ -5,48 +5,30 @@ package glGraphics;
  * Construct entries registered in a glGraphics object. Allows loading of wavefront .obj files.
  * However, ONLY triagulated objects for normals and UV coordinates are supported. crashes otherwise
  * 
+ * The geometry itself is held by a Mesh, which is loaded through the MeshLoader and therefore comes from
+ * the binary mesh cache whenever possible.
+ * 
+ * A Construct registered with glGraphics.registerConstructAsync starts without a Mesh. Its transform can be set
+ * right away, but it is not drawn until the Mesh has been loaded and uploaded.
+ * 
  */
 
-import static org.lwjgl.opengl.GL11.GL_FLOAT;
-import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
-import static org.lwjgl.opengl.GL11.glDrawElements;
-import static org.lwjgl.opengl.GL11.glGetError;
-import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
-import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
-import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
-import static org.lwjgl.opengl.GL15.glBindBuffer;
-import static org.lwjgl.opengl.GL15.glBufferData;
-import static org.lwjgl.opengl.GL15.glDeleteBuffers;
-import static org.lwjgl.opengl.GL15.glGenBuffers;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
-
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.LinkedList;
+import java.util.Arrays;
 
-import org.lwjgl.util.glu.GLU;
-import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
-import util.Ref;
 import util.SimpleLogger;
 
-import static org.lwjgl.opengl.GL11.*;
-
 
 public class Construct {
 
-  private float[] data;
-  private int[] elems;
+  private Mesh mesh;
+  //whether this construct holds a gpu reference on its mesh
+  private boolean baked;
+  //position, rotation and scale as of the last transformChanged()
+  private float[] lastTransform;
   
   public Vector3f scale;
   public Vector3f rotation;
@@ -55,21 +37,19 @@ public class Construct {
   //used to determine, if an object can be discarded, because it hasn't been drawn for an amount of time (see Ref.java)
   private long lastRendered;
   
-  //needed references of openGL calls, -10 if not yet generated
-  private int vaPointer;
-  private int vbPointer;
-  private int ebPointer;
-  private int ebLength;
-  
   
   public Construct(String fn){
+    this(load(fn));
+  }
+  
+  //empty, the mesh is set once it is loaded
+  Construct(){
+    this((Mesh)null);
+  }
+  
+  public Construct(Mesh m){
     lastRendered = System.currentTimeMillis();
-    vaPointer = -10;
-    vbPointer = -10;
-    ebPointer = -10;
-    ebLength = -10;
-
-    fillArrays(fn);
+    mesh = m;
     
     scale = new Vector3f(1,1,1);
     rotation = new Vector3f(0,0,0);
@@ -78,144 +58,102 @@ public class Construct {
   
   
   public void draw(long now){
-    if(vaPointer == -10) throw new IllegalStateException("No valid VertexArrayObject assigned.");
-    
-    glBindVertexArray(vaPointer);
-    glDrawElements(GL_TRIANGLES, ebLength, GL_UNSIGNED_INT, 0);
+    draw(now, 0);
+  }
+  
+  public void draw(long now, int lod){
+    mesh.draw(lod);
 
     lastRendered = System.currentTimeMillis();
   }
   
+  //drawn but culled, it still counts as in use
+  void skip(long now){
+    lastRendered = now;
+  }
+  
   public void bake(){
-    bakeFixed();
+    if(baked) return;
+    mesh.bake();
+    baked = true;
   }
   
-  private void bakeFixed(){
-    //glUseProgram(Ref.defaultSW.getShaderID());
-    
-    vaPointer = glGenVertexArrays();
-    glBindVertexArray(vaPointer);
-    
-    vbPointer = glGenBuffers();
-    glBindBuffer(GL_ARRAY_BUFFER, vbPointer);
-    
-    //fill the vertexBuffer and the elementBuffer
-    
-    FloatBuffer buff = (ByteBuffer.allocateDirect(data.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asFloatBuffer();
-    buff.put(data);
-    buff.flip();
-    glBufferData(GL_ARRAY_BUFFER, buff, GL_STATIC_DRAW);
-    
-    ebPointer = glGenBuffers();
-    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebPointer);
+  //derives the matrix from the loc/rot/scale attributes
+  public Matrix4f getModelMatrix(){
+    Matrix4f m = new Matrix4f();
+    m.translate(position);
     
-    ebLength = elems.length;
+    Matrix4f.mul(m, new Matrix4f().rotate(rotation.x, new Vector3f(1,0,0)), m);
+    Matrix4f.mul(m, new Matrix4f().rotate(rotation.y, new Vector3f(0,1,0)), m);
+    Matrix4f.mul(m, new Matrix4f().rotate(rotation.z, new Vector3f(0,0,1)), m);
     
-    IntBuffer buffi = (ByteBuffer.allocateDirect(elems.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asIntBuffer();
-    buffi.put(elems);
-    buffi.flip();
-    glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffi, GL_STATIC_DRAW);
-    
-    //define attribPositions in each vertexArray
-    glVertexAttribPointer(Ref.shPosAttrib, 3, GL_FLOAT, false, 8*(Float.SIZE/8), 0L);
-    glEnableVertexAttribArray(Ref.shPosAttrib);
-    glVertexAttribPointer(Ref.shNorAttrib, 3, GL_FLOAT, false, 8*(Float.SIZE/8), 3*(Float.SIZE/8));  
-    glEnableVertexAttribArray(Ref.shNorAttrib);
-    glVertexAttribPointer(Ref.shTexAttrib, 2, GL_FLOAT, false, 8*(Float.SIZE/8), 6*(Float.SIZE/8));
-    glEnableVertexAttribArray(Ref.shTexAttrib);
-    
-    int err = glGetError();
-    if(err != 0) {
-      SimpleLogger.log(GLU.gluErrorString(err) + "("+err+")", -1, this.getClass(), "bakeFixed");
+    Matrix4f.scale(scale, m, m);
+    return m;
+  }
+  
+  //whether position, rotation or scale changed since the last call
+  boolean transformChanged(){
+    float[] t = {position.x, position.y, position.z, rotation.x, rotation.y, rotation.z, scale.x, scale.y, scale.z};
+    if(Arrays.equals(t, lastTransform)) return false;
+    lastTransform = t;
+    return true;
+  }
+  
+  //world space box (min, max) around the mesh box transformed by m (Arvo). meshes without a box get a huge one
+  public float[] getWorldBox(Matrix4f m){
+    float[] b = mesh == null ? null : mesh.getBoundingBox();
+    float cx=0, cy=0, cz=0, ex=1e30f, ey=1e30f, ez=1e30f;
+    if(b != null){
+      cx = (b[0]+b[3])/2; cy = (b[1]+b[4])/2; cz = (b[2]+b[5])/2;
+      ex = (b[3]-b[0])/2; ey = (b[4]-b[1])/2; ez = (b[5]-b[2])/2;
     }
+    
+    float wx = m.m00*cx + m.m10*cy + m.m20*cz + m.m30;
+    float wy = m.m01*cx + m.m11*cy + m.m21*cz + m.m31;
+    float wz = m.m02*cx + m.m12*cy + m.m22*cz + m.m32;
+    float hx = Math.abs(m.m00)*ex + Math.abs(m.m10)*ey + Math.abs(m.m20)*ez;
+    float hy = Math.abs(m.m01)*ex + Math.abs(m.m11)*ey + Math.abs(m.m21)*ez;
+    float hz = Math.abs(m.m02)*ex + Math.abs(m.m12)*ey + Math.abs(m.m22)*ez;
+    return new float[]{wx-hx, wy-hy, wz-hz, wx+hx, wy+hy, wz+hz};
   }
   
-
+  public Mesh getMesh(){
+    return mesh;
+  }
+  
+  void setMesh(Mesh m){
+    mesh = m;
+  }
+  
+  //bounds of the mesh in model space, see Mesh
+  public float[] getBoundingBox(){
+    return mesh == null ? null : mesh.getBoundingBox();
+  }
+  
+  public float[] getBoundingSphere(){
+    return mesh == null ? null : mesh.getBoundingSphere();
+  }
+  
+  public boolean isLoaded(){
+    return mesh != null;
+  }
   
   public long getLastRendered(){
     return lastRendered;
   }
   
   public void releaseVBO(){
+    if(!baked) return;
     SimpleLogger.log("deleting construct", 10, Construct.class, "releaseVBO");
-    glDeleteBuffers(vbPointer);
-    glDeleteBuffers(ebPointer);
-    glDeleteVertexArrays(vaPointer);
+    mesh.release();
+    baked = false;
   }
   
-  private void fillArrays(String fn){
-    String line;
-    String[] lineElems;
-    String[] faceLine;
-    
-    float v1,v2,v3;
-    int i1,i2,i3;
-    
-    try (BufferedReader br = new BufferedReader(new FileReader(fn));){
-      
-      
-      line = br.readLine();
-      LinkedList<Vector3f> verts = new LinkedList<>();
-      LinkedList<Vector3f> norms = new LinkedList<>();
-      LinkedList<Vector2f> texts = new LinkedList<>();
-      
-      LinkedList<Float> dataList = new LinkedList<>();
-      
-      while(line != null){
-        lineElems = line.split(" ");
-        if(lineElems[0].equals("v")){
-          v1 = Float.parseFloat(lineElems[1]);
-          v2 = Float.parseFloat(lineElems[2]);
-          v3 = Float.parseFloat(lineElems[3]);
-          verts.add(new Vector3f(v1,v2,v3));
-        }else if(lineElems[0].equals("vn")){
-          v1 = Float.parseFloat(lineElems[1]);
-          v2 = Float.parseFloat(lineElems[2]);
-          v3 = Float.parseFloat(lineElems[3]);
-          norms.add(new Vector3f(v1,v2,v3));
-        }else if(lineElems[0].equals("vt")){
-          v1 = Float.parseFloat(lineElems[1]);
-          v2 = Float.parseFloat(lineElems[2]);
-          texts.add(new Vector2f(v1,v2));
-        }else if(lineElems[0].equals("f")){
-          for(int i=1;i<4;i++){
-            faceLine = lineElems[i].split("/");
-            i1 = Integer.parseInt(faceLine[0]);
-            i2 = Integer.parseInt(faceLine[2]); //vn & vt are flipped
-            i3 = Integer.parseInt(faceLine[1]);
-            
-            dataList.add(verts.get(i1-1).x);
-            dataList.add(verts.get(i1-1).y);
-            dataList.add(verts.get(i1-1).z);
-            
-            dataList.add(norms.get(i2-1).x);
-            dataList.add(norms.get(i2-1).y);
-            dataList.add(norms.get(i2-1).z);
-            
-            dataList.add(texts.get(i3-1).x);
-            dataList.add(texts.get(i3-1).y);
-          }
-        }
-        
-        line = br.readLine();
-      }
-      
-      //because array size is unknown before reaching EOF
-      data = new float[dataList.size()];
-      int i=0;
-      for(Float f : dataList){
-        data[i] = f;
-        i++;
-      }
-      
-      //each vertex has 8 values, so there are data.length/8 elements
-      elems = new int[data.length/8];
-      for(i=0; i<elems.length; i++){
-        elems[i] = i;
-      }
-      
+  private static Mesh load(String fn){
+    try {
+      return MeshLoader.load(fn);
     } catch (IOException x){
-      System.err.println("bullshit file not found or something: " + x);
+      throw new IllegalArgumentException("bullshit file not found or something: " + x);
     }
   }
 }
@@ -33,7 +33,7 @@ package glGraphics;
 
 import static org.lwjgl.opengl.GL11.GL_FLOAT;
 import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
-import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
 import static org.lwjgl.opengl.GL11.glDrawElements;
 import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
 import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
@@ -44,14 +44,11 @@ import static org.lwjgl.opengl.GL15.glDeleteBuffers;
 import static org.lwjgl.opengl.GL15.glGenBuffers;
 import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
 import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
 import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 import util.Ref;
 import util.SimpleLogger;
@@ -71,13 +68,13 @@ public class FrameBufferManager {
     }
     
     public void execute(){
-      glBindVertexArray(vaScreen);
-      glDrawElements(GL_TRIANGLES, quadElems.length, GL_UNSIGNED_INT, 0);
+      GLState.bindVertexArray(vaScreen);
+      glDrawElements(GL_TRIANGLES, quadElems.length, GL_UNSIGNED_BYTE, 0);
     }
     
     private void setupVAO(){
       vaScreen = glGenVertexArrays();
-      glBindVertexArray(vaScreen);
+      GLState.bindVertexArray(vaScreen);
       
       vbScreen = glGenBuffers();
       glBindBuffer(GL_ARRAY_BUFFER, vbScreen);
@@ -90,14 +87,15 @@ public class FrameBufferManager {
       ebScreen = glGenBuffers();
       glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebScreen);
       
-      IntBuffer buffi = (ByteBuffer.allocateDirect(quadElems.length*(Float.SIZE/8)).order(ByteOrder.nativeOrder())).asIntBuffer();
+      //4 vertices, so byte indices are enough
+      ByteBuffer buffi = ByteBuffer.allocateDirect(quadElems.length);
       buffi.put(quadElems);
       buffi.flip();
       glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffi, GL_STATIC_DRAW);
     }
     
     private void setupAttribLocs(){
-      glBindVertexArray(vaScreen);
+      GLState.bindVertexArray(vaScreen);
       glBindBuffer(GL_ARRAY_BUFFER,vbScreen);
       
       glVertexAttribPointer(Ref.shPosAttrib, 3, GL_FLOAT, false, 8*(Float.SIZE/8), 0L);
@@ -111,7 +109,7 @@ public class FrameBufferManager {
     public void releaseVAO(){
       glDeleteBuffers(vbScreen);
       glDeleteBuffers(ebScreen);
-      glDeleteVertexArrays(vaScreen);
+      GLState.deleteVertexArray(vaScreen);
     }
     
     public final float[] screenVerts = {
@@ -122,7 +120,7 @@ public class FrameBufferManager {
       -1.0f,  1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 1.0f 
     };
   
-    public final int[] quadElems = {0, 1, 2,
+    public final byte[] quadElems = {0, 1, 2,
                     2, 3, 0
     };
   }
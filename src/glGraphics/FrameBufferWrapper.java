@@ -20,7 +20,6 @@ import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
@@ -43,23 +42,7 @@ public class FrameBufferWrapper {
   
   protected boolean ready;
   
-  protected static HashMap<Integer, Integer> slotMap;
-  
-  private static void setupSlotMap(){
-    slotMap = new HashMap<>();
-
-    slotMap.put(10, GL_TEXTURE10);
-    slotMap.put(11, GL_TEXTURE11);
-    slotMap.put(12, GL_TEXTURE12);
-    slotMap.put(13, GL_TEXTURE13);
-    slotMap.put(14, GL_TEXTURE14);
-    slotMap.put(15, GL_TEXTURE15);
-    slotMap.put(16, GL_TEXTURE16);
-    slotMap.put(17, GL_TEXTURE17);
-  }
-  
   public FrameBufferWrapper(){
-    if(slotMap == null) setupSlotMap();
     ready = false;
   }
   
@@ -79,11 +62,10 @@ public class FrameBufferWrapper {
   private void generateFBO(){
 
     fboID = glGenFramebuffers();
-    glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+    GLState.bindFramebuffer(fboID);
     
     writeTexID = glGenTextures();
-    glActiveTexture(slotMap.get(writeSlot));
-    glBindTexture(GL11.GL_TEXTURE_2D, writeTexID);
+    GLState.bindActive(writeSlot, GL11.GL_TEXTURE_2D, writeTexID);
     
     //generate empty texture with allocated mipmaps
     glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL_RGBA16F, Ref.xRes, Ref.yRes, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer)null);
@@ -126,31 +108,28 @@ public class FrameBufferWrapper {
 
     //setup texture for reading
     if(readTexID != -1){
-      glActiveTexture(slotMap.get(readSlot));
-      
       if(readSlot == Ref.fboTargetSlot[0]){//Tex2DMS
-        glBindTexture(GL32.GL_TEXTURE_2D_MULTISAMPLE, readTexID);
+        GLState.bindTexture(readSlot, GL32.GL_TEXTURE_2D_MULTISAMPLE, readTexID);
       }else{
-        glBindTexture(GL11.GL_TEXTURE_2D, readTexID);
+        //glGenerateMipmap works on the active unit
+        GLState.bindActive(readSlot, GL11.GL_TEXTURE_2D, readTexID);
         glGenerateMipmap(GL11.GL_TEXTURE_2D);
       }
     }
 
     //setup texture for writing
-    glActiveTexture(slotMap.get(writeSlot));
-    
     if(writeSlot == Ref.fboTargetSlot[0]){//Tex2DMS
-      glBindTexture(GL32.GL_TEXTURE_2D_MULTISAMPLE, writeTexID);
+      GLState.bindTexture(writeSlot, GL32.GL_TEXTURE_2D_MULTISAMPLE, writeTexID);
     }else{
-      glBindTexture(GL11.GL_TEXTURE_2D, writeTexID);
+      GLState.bindTexture(writeSlot, GL11.GL_TEXTURE_2D, writeTexID);
     }
 
     if(shader != null){
-          glUseProgram(shader.getShaderID());
+          GLState.useProgram(shader.getShaderID());
           shader.storeUniform("fboTex", readSlot);
     }
  
-    glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+    GLState.bindFramebuffer(fboID);
     if(clear)glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
   }
   
@@ -163,8 +142,8 @@ public class FrameBufferWrapper {
   }
   
   public void releaseFBO(){
-    glDeleteTextures(writeTexID);
-    glDeleteFramebuffers(fboID);
+    GLState.deleteTexture(writeTexID);
+    GLState.deleteFramebuffer(fboID);
   }
 
 }
@@ -8,7 +8,6 @@ package glGraphics;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.*;
-import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL32.*;
 
@@ -41,11 +40,10 @@ public class FrameBufferWrapperMS extends FrameBufferWrapper{
   private void generateFBO(){
 
     fboID = glGenFramebuffers();
-    glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+    GLState.bindFramebuffer(fboID);
     
     writeTexID = glGenTextures();
-    glActiveTexture(slotMap.get(writeSlot));
-    glBindTexture(GL32.GL_TEXTURE_2D_MULTISAMPLE, writeTexID);
+    GLState.bindActive(writeSlot, GL32.GL_TEXTURE_2D_MULTISAMPLE, writeTexID);
     
     //generate empty texture with allocated mipmaps
     //glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL_RGBA16F, Ref.xRes, Ref.yRes, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer)null);
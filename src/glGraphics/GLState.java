@@ -0,0 +1,197 @@
+package glGraphics;
+
+/**
+ *
+ * Mirror of the gl state that gets switched a lot: the program in use, the bound vertex array and framebuffer, the
+ * texture on each unit and the active unit, depth test, depth mask, blending and the blend function.
+ * Everything that binds goes through here, and a call that would not change anything is not sent to gl.
+ *
+ * The state starts out as unknown, so the first call of each kind is always issued. Names that get deleted through
+ * the delete methods are forgotten, as gl hands them out again. Code outside of this (Slick) that binds on its own
+ * has to call forgetTexture for the unit it used.
+ *
+ * There is only one context, used by the render thread, so the state is static. Issued and elided calls are counted
+ * per frame, endFrame() is called once at the end of each.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL20.glDeleteProgram;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+
+import java.util.Arrays;
+
+import util.SimpleLogger;
+
+public class GLState {
+
+  public static final int UNITS = 32;
+  private static final int UNKNOWN = -1;
+
+  private static int program = UNKNOWN;
+  private static int vertexArray = UNKNOWN;
+  private static int framebuffer = UNKNOWN;
+  private static int activeUnit = UNKNOWN;
+  private static int[] textures = new int[UNITS];
+  private static int[] targets = new int[UNITS];
+  //-1 unknown, 0 off, 1 on
+  private static int depthTest = UNKNOWN;
+  private static int depthMask = UNKNOWN;
+  private static int blend = UNKNOWN;
+  private static int blendSrc = UNKNOWN, blendDst = UNKNOWN;
+
+  private static int issued, elided;
+  private static int lastIssued, lastElided;
+
+  static{
+    Arrays.fill(textures, UNKNOWN);
+  }
+
+  //all of the return values tell whether the call was sent to gl
+
+  public static boolean useProgram(int id){
+    if(program == id) return skip();
+    glUseProgram(id);
+    program = id;
+    return issue();
+  }
+
+  public static boolean bindVertexArray(int id){
+    if(vertexArray == id) return skip();
+    glBindVertexArray(id);
+    vertexArray = id;
+    return issue();
+  }
+
+  //0 is the screen
+  public static boolean bindFramebuffer(int id){
+    if(framebuffer == id) return skip();
+    glBindFramebuffer(GL_FRAMEBUFFER, id);
+    framebuffer = id;
+    return issue();
+  }
+
+  //unit is 0 to UNITS-1, not GL_TEXTUREn
+  public static boolean activeTexture(int unit){
+    if(activeUnit == unit) return skip();
+    glActiveTexture(GL_TEXTURE0+unit);
+    activeUnit = unit;
+    return issue();
+  }
+
+  //for sampling. the active unit is only changed if the texture has to be bound
+  public static boolean bindTexture(int unit, int target, int id){
+    if(textures[unit] == id && targets[unit] == target) return skip();
+    activeTexture(unit);
+    return bind(unit, target, id);
+  }
+
+  //for calls that work on the texture bound to the active unit (glTexImage, glGenerateMipmap, ...)
+  public static boolean bindActive(int unit, int target, int id){
+    activeTexture(unit);
+    if(textures[unit] == id && targets[unit] == target) return skip();
+    return bind(unit, target, id);
+  }
+
+  private static boolean bind(int unit, int target, int id){
+    glBindTexture(target, id);
+    textures[unit] = id;
+    targets[unit] = target;
+    return issue();
+  }
+
+  public static boolean depthTest(boolean enabled){
+    if(depthTest == (enabled ? 1 : 0)) return skip();
+    if(enabled) glEnable(GL_DEPTH_TEST);
+    else        glDisable(GL_DEPTH_TEST);
+    depthTest = enabled ? 1 : 0;
+    return issue();
+  }
+
+  public static boolean depthMask(boolean enabled){
+    if(depthMask == (enabled ? 1 : 0)) return skip();
+    glDepthMask(enabled);
+    depthMask = enabled ? 1 : 0;
+    return issue();
+  }
+
+  public static boolean blend(boolean enabled){
+    if(blend == (enabled ? 1 : 0)) return skip();
+    if(enabled) glEnable(GL_BLEND);
+    else        glDisable(GL_BLEND);
+    blend = enabled ? 1 : 0;
+    return issue();
+  }
+
+  public static boolean blendFunc(int src, int dst){
+    if(blendSrc == src && blendDst == dst) return skip();
+    glBlendFunc(src, dst);
+    blendSrc = src;
+    blendDst = dst;
+    return issue();
+  }
+
+  //something else bound a texture on this unit
+  public static void forgetTexture(int unit){
+    textures[unit] = UNKNOWN;
+  }
+
+  public static void deleteTexture(int id){
+    glDeleteTextures(id);
+    for(int i=0; i<UNITS; i++){
+      if(textures[i] == id) textures[i] = UNKNOWN;
+    }
+  }
+
+  public static void deleteProgram(int id){
+    glDeleteProgram(id);
+    if(program == id) program = UNKNOWN;
+  }
+
+  public static void deleteVertexArray(int id){
+    glDeleteVertexArrays(id);
+    if(vertexArray == id) vertexArray = UNKNOWN;
+  }
+
+  public static void deleteFramebuffer(int id){
+    glDeleteFramebuffers(id);
+    if(framebuffer == id) framebuffer = UNKNOWN;
+  }
+
+  private static boolean issue(){
+    issued++;
+    return true;
+  }
+
+  private static boolean skip(){
+    elided++;
+    return false;
+  }
+
+  public static void endFrame(){
+    lastIssued = issued;
+    lastElided = elided;
+    issued = 0;
+    elided = 0;
+  }
+
+  //calls of the last finished frame
+  public static int getIssued(){
+    return lastIssued;
+  }
+
+  public static int getElided(){
+    return lastElided;
+  }
+
+  public static void logStats(){
+    SimpleLogger.log("state calls: "+lastIssued+" issued, "+lastElided+" elided", 1, GLState.class, "logStats");
+  }
+}
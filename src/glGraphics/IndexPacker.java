@@ -0,0 +1,209 @@
+package glGraphics;
+
+/**
+ *
+ * Picks the narrowest index type a mesh can use and packs index lists into it.
+ * Up to 256 vertices fit GL_UNSIGNED_BYTE, up to 65536 GL_UNSIGNED_SHORT, everything else needs GL_UNSIGNED_INT.
+ * 
+ * Meshes with more vertices can be split into sub-meshes of at most 65536 vertices each (split). Each part keeps
+ * its own copy of the vertices it references and is drawn with glDrawElementsBaseVertex, so the whole mesh can
+ * still use 16 bit indices. splitLods does this for lod 0 only and lets the coarser lods index into its parts.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import util.FloatList;
+import util.IntList;
+import util.Ref;
+
+public class IndexPacker {
+
+  public static final int MAX_SHORT_VERTICES = 1 << 16;
+  
+  public static class Split {
+    //vertices of all parts after each other, in the same interleaved format as the input
+    public final float[] vertices;
+    public final int vertexCount;
+    //indices local to their part
+    public final int[] elems;
+    //per part: first index, index count, base vertex
+    public final int[] parts;
+    //parts of lod l are lodParts[l] to lodParts[l+1]. null from split
+    public final int[] lodParts;
+    
+    private Split(float[] v, int vc, int[] e, int[] p, int[] lp){
+      vertices = v;
+      vertexCount = vc;
+      elems = e;
+      parts = p;
+      lodParts = lp;
+    }
+  }
+  
+  public static int indexType(int vertexCount){
+    if(vertexCount <= 256 && Ref.byteIndices) return GL_UNSIGNED_BYTE;
+    if(vertexCount <= MAX_SHORT_VERTICES)     return GL_UNSIGNED_SHORT;
+    return GL_UNSIGNED_INT;
+  }
+  
+  public static int indexSize(int type){
+    switch(type){
+    case GL_UNSIGNED_BYTE:  return 1;
+    case GL_UNSIGNED_SHORT: return 2;
+    default:                return 4;
+    }
+  }
+  
+  public static ByteBuffer pack(int[] elems, int type){
+    ByteBuffer b = ByteBuffer.allocateDirect(elems.length*indexSize(type)).order(ByteOrder.nativeOrder());
+    
+    switch(type){
+    case GL_UNSIGNED_BYTE:
+      for(int i=0; i<elems.length; i++) b.put(i, (byte)elems[i]);
+      break;
+    case GL_UNSIGNED_SHORT:
+      for(int i=0; i<elems.length; i++) b.putShort(i*2, (short)elems[i]);
+      break;
+    default:
+      b.asIntBuffer().put(elems);
+      break;
+    }
+    return b;
+  }
+  
+  //splits the triangle list, in its current order, into parts referencing at most 65536 vertices each
+  public static Split split(float[] data, int stride, int[] elems, int vertexCount){
+    FloatList verts = new FloatList(vertexCount*stride);
+    int[] local = new int[elems.length];
+    IntList parts = new IntList();
+    
+    //global -> local vertex index of the current part. valid if stamp matches the part number
+    int[] map = new int[vertexCount];
+    int[] stamp = new int[vertexCount];
+    Arrays.fill(stamp, -1);
+    
+    int part = 0;
+    int partStart = 0;
+    int base = 0;
+    int used = 0;
+    
+    for(int t=0; t<elems.length/3; t++){
+      //vertices this triangle would add to the part
+      int fresh = 0;
+      for(int k=0; k<3; k++){
+        if(stamp[elems[t*3+k]] != part) fresh++;
+      }
+      
+      if(used + fresh > MAX_SHORT_VERTICES){
+        parts.add(partStart, t*3-partStart, base);
+        part++;
+        partStart = t*3;
+        base += used;
+        used = 0;
+      }
+      
+      for(int k=0; k<3; k++){
+        int v = elems[t*3+k];
+        if(stamp[v] != part){
+          stamp[v] = part;
+          map[v] = used++;
+          for(int i=0; i<stride; i++) verts.add(data[v*stride+i]);
+        }
+        local[t*3+k] = map[v];
+      }
+    }
+    parts.add(partStart, elems.length-partStart, base);
+    
+    return new Split(verts.toArray(), base+used, local, parts.toArray(), null);
+  }
+  
+  /*
+   * splits lod 0 like split, the coarser lods only use vertices of lod 0 and index into its parts. a triangle goes to
+   * a part that has all three of its corners; the few that cross a part border go into extra parts with their own
+   * vertex copies, behind those of lod 0
+   */
+  public static Split splitLods(float[] data, int stride, int[][] lods, int vertexCount){
+    Split s = split(data, stride, lods[0], vertexCount);
+    int partCount = s.parts.length/3;
+    
+    //the parts each vertex is in, with its local index there, as a linked list per vertex
+    int[] head = new int[vertexCount];
+    Arrays.fill(head, -1);
+    int[] nodePart = new int[s.vertexCount];
+    int[] nodeLocal = new int[s.vertexCount];
+    int[] nodeNext = new int[s.vertexCount];
+    int nodes = 0;
+    for(int p=0; p<partCount; p++){
+      for(int i=s.parts[p*3]; i<s.parts[p*3]+s.parts[p*3+1]; i++){
+        int v = lods[0][i];
+        if(localIn(head, nodePart, nodeLocal, nodeNext, v, p) >= 0) continue;
+        nodePart[nodes] = p;
+        nodeLocal[nodes] = s.elems[i];
+        nodeNext[nodes] = head[v];
+        head[v] = nodes++;
+      }
+    }
+    
+    FloatList verts = new FloatList(s.vertices.length);
+    verts.addAll(s.vertices);
+    IntList elems = new IntList(s.elems.length*2);
+    elems.addAll(s.elems);
+    IntList parts = new IntList(s.parts.length*lods.length);
+    parts.addAll(s.parts);
+    int[] lodParts = new int[lods.length+1];
+    lodParts[1] = partCount;
+    int vertices = s.vertexCount;
+    
+    IntList[] byPart = new IntList[partCount];
+    for(int p=0; p<partCount; p++) byPart[p] = new IntList();
+    IntList cross = new IntList();
+    for(int l=1; l<lods.length; l++){
+      for(IntList b : byPart) b.clear();
+      cross.clear();
+      int[] e = lods[l];
+      for(int t=0; t<e.length; t+=3){
+        boolean placed = false;
+        for(int n=head[e[t]]; n>=0 && !placed; n=nodeNext[n]){
+          int p = nodePart[n];
+          int lb = localIn(head, nodePart, nodeLocal, nodeNext, e[t+1], p);
+          int lc = localIn(head, nodePart, nodeLocal, nodeNext, e[t+2], p);
+          if(lb < 0 || lc < 0) continue;
+          byPart[p].add(nodeLocal[n], lb, lc);
+          placed = true;
+        }
+        if(!placed) cross.add(e[t], e[t+1], e[t+2]);
+      }
+      
+      for(int p=0; p<partCount; p++){
+        if(byPart[p].size() == 0) continue;
+        parts.add(elems.size(), byPart[p].size(), s.parts[p*3+2]);
+        elems.addAll(byPart[p].toArray());
+      }
+      if(cross.size() > 0){
+        Split x = split(data, stride, cross.toArray(), vertexCount);
+        for(int i=0; i<x.parts.length; i+=3) parts.add(x.parts[i] + elems.size(), x.parts[i+1], x.parts[i+2] + vertices);
+        elems.addAll(x.elems);
+        verts.addAll(x.vertices);
+        vertices += x.vertexCount;
+      }
+      lodParts[l+1] = parts.size()/3;
+    }
+    
+    return new Split(verts.toArray(), vertices, elems.toArray(), parts.toArray(), lodParts);
+  }
+  
+  //local index of vertex v in part p, -1 if it isn't in there
+  private static int localIn(int[] head, int[] nodePart, int[] nodeLocal, int[] nodeNext, int v, int p){
+    for(int n=head[v]; n>=0; n=nodeNext[n]){
+      if(nodePart[n] == p) return nodeLocal[n];
+    }
+    return -1;
+  }
+}
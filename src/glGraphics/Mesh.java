@@ -0,0 +1,275 @@
+package glGraphics;
+
+/**
+ *
+ * GPU-ready geometry of a Construct: one vertex block in the format described by its VertexLayout and one
+ * index block. Both are direct ByteBuffers, either built after parsing an .obj file or mapped straight from
+ * the binary mesh cache, and are handed to glBufferData as they are.
+ *
+ * Quantized positions (see VertexPacker) are reconstructed in the vertex shader as vPos*posScale + posBias.
+ * For float positions, scale is 1 and bias is 0.
+ * 
+ * The index block may be split into parts (first index, index count, base vertex), e.g. when a big mesh was
+ * broken up to use 16 bit indices. Each part is one draw call.
+ * 
+ * A Mesh can hold several levels of detail (see MeshSimplifier), which share the vertex block. Each level is a
+ * range of parts, lod 0 is the full mesh. The bounding sphere (center, radius) is used to pick the level, the bounding
+ * box for frustum culling. Meshes created without bounds have an infinite sphere and no box and are never culled.
+ * 
+ * For picking, a TriangleBVH over the decoded positions of lod 0 is built on first use.
+ * 
+ * The Mesh also owns the VertexArrayObject and buffer handles, -10 if not yet generated. A Mesh may be shared by
+ * several Constructs (see AssetCache), so bake() and release() count their users and only the first bake uploads
+ * and only the last release deletes.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL11.glDrawElements;
+import static org.lwjgl.opengl.GL11.glGetError;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.util.glu.GLU;
+import org.lwjgl.util.vector.Vector3f;
+
+import util.Ref;
+import util.SimpleLogger;
+
+public class Mesh {
+
+  private final VertexLayout layout;
+  private final ByteBuffer vertices;
+  private final ByteBuffer indices;
+  private final int vertexCount;
+  private final int indexCount;
+  private final int indexType;
+  private final int[] parts;
+  private final int[] lods;
+  private final float[] sphere;
+  private final float[] box;
+  private final Vector3f posScale;
+  private final Vector3f posBias;
+  
+  private int vaPointer;
+  private int vbPointer;
+  private int ebPointer;
+  private int users;
+  private TriangleBVH pickTree;
+  
+  public Mesh(VertexLayout l, ByteBuffer v, int vCount, ByteBuffer i, int iCount, int iType){
+    this(l, v, vCount, i, iCount, iType, new int[]{0, iCount, 0}, new float[]{1,1,1}, new float[]{0,0,0});
+  }
+  
+  public Mesh(VertexLayout l, ByteBuffer v, int vCount, ByteBuffer i, int iCount, int iType, int[] p, float[] scale, float[] bias){
+    this(l, v, vCount, i, iCount, iType, p, new int[]{0, p.length/3}, scale, bias, new float[]{0,0,0,Float.MAX_VALUE}, null);
+  }
+  
+  //lod l draws the parts lods[l] to lods[l+1]-1
+  public Mesh(VertexLayout l, ByteBuffer v, int vCount, ByteBuffer i, int iCount, int iType, int[] p, int[] lodParts, float[] scale, float[] bias, float[] bSphere, float[] bBox){
+    layout = l;
+    vertices = v;
+    indices = i;
+    vertexCount = vCount;
+    indexCount = iCount;
+    indexType = iType;
+    parts = p.clone();
+    lods = lodParts.clone();
+    sphere = bSphere.clone();
+    box = bBox == null ? null : bBox.clone();
+    posScale = new Vector3f(scale[0], scale[1], scale[2]);
+    posBias = new Vector3f(bias[0], bias[1], bias[2]);
+    
+    vaPointer = -10;
+    vbPointer = -10;
+    ebPointer = -10;
+  }
+  
+  public void bake(){
+    if(users++ > 0) return;
+    
+    vaPointer = glGenVertexArrays();
+    GLState.bindVertexArray(vaPointer);
+    
+    vbPointer = glGenBuffers();
+    glBindBuffer(GL_ARRAY_BUFFER, vbPointer);
+    glBufferData(GL_ARRAY_BUFFER, vertices.duplicate(), GL_STATIC_DRAW);
+    
+    ebPointer = glGenBuffers();
+    glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebPointer);
+    glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices.duplicate(), GL_STATIC_DRAW);
+    
+    layout.apply();
+    
+    int err = glGetError();
+    if(err != 0) {
+      SimpleLogger.log(GLU.gluErrorString(err) + "("+err+")", -1, this.getClass(), "bake");
+    }
+  }
+  
+  public void draw(){
+    draw(0);
+  }
+  
+  public void draw(int lod){
+    if(vaPointer == -10) throw new IllegalStateException("No valid VertexArrayObject assigned.");
+    
+    GLState.bindVertexArray(vaPointer);
+    
+    lod = Math.max(0, Math.min(lod, getLodCount()-1));
+    int size = IndexPacker.indexSize(indexType);
+    for(int i=lods[lod]*3; i<lods[lod+1]*3; i+=3){
+      if(parts[i+2] == 0) glDrawElements(GL_TRIANGLES, parts[i+1], indexType, (long)parts[i]*size);
+      else                glDrawElementsBaseVertex(GL_TRIANGLES, parts[i+1], indexType, (long)parts[i]*size, parts[i+2]);
+    }
+  }
+  
+  public void release(){
+    if(users == 0 || --users > 0) return;
+    
+    glDeleteBuffers(vbPointer);
+    glDeleteBuffers(ebPointer);
+    GLState.deleteVertexArray(vaPointer);
+    vaPointer = -10;
+    vbPointer = -10;
+    ebPointer = -10;
+  }
+  
+  public boolean isBaked(){
+    return vaPointer != -10;
+  }
+  
+  public VertexLayout getLayout(){
+    return layout;
+  }
+  
+  //read-only views, positioned at 0
+  public ByteBuffer getVertices(){
+    return vertices.asReadOnlyBuffer().order(vertices.order());
+  }
+  
+  public ByteBuffer getIndices(){
+    return indices.asReadOnlyBuffer().order(indices.order());
+  }
+  
+  public int getVertexCount(){
+    return vertexCount;
+  }
+  
+  public int getIndexCount(){
+    return indexCount;
+  }
+  
+  //bytes sent to the gpu by bake()
+  public long getByteSize(){
+    return vertices.capacity() + indices.capacity();
+  }
+  
+  public int getIndexType(){
+    return indexType;
+  }
+  
+  //first index, index count and base vertex of each part
+  public int[] getParts(){
+    return parts.clone();
+  }
+  
+  public int getLodCount(){
+    return lods.length-1;
+  }
+  
+  //index of the first part of each lod, plus the total part count
+  public int[] getLods(){
+    return lods.clone();
+  }
+  
+  //center x,y,z and radius in model space
+  public float[] getBoundingSphere(){
+    return sphere.clone();
+  }
+  
+  //min x,y,z and max x,y,z in model space, null if unknown
+  public float[] getBoundingBox(){
+    return box == null ? null : box.clone();
+  }
+  
+  //triangles drawn for the given lod
+  public int getTriangleCount(int lod){
+    int n = 0;
+    for(int i=lods[lod]*3; i<lods[lod+1]*3; i+=3) n += parts[i+1];
+    return n/3;
+  }
+  
+  //model space positions, 3 floats per vertex, with quantization undone
+  public float[] decodePositions(){
+    VertexLayout.Attribute pos = null;
+    for(int i=0; i<layout.getAttributeCount(); i++){
+      if(layout.getAttribute(i).location == Ref.shPosAttrib) pos = layout.getAttribute(i);
+    }
+    if(pos == null) throw new IllegalStateException("mesh has no position attribute");
+    
+    ByteBuffer vb = getVertices();
+    float[] scale = {posScale.x, posScale.y, posScale.z};
+    float[] bias = {posBias.x, posBias.y, posBias.z};
+    float[] out = new float[vertexCount*3];
+    for(int v=0; v<vertexCount; v++){
+      int base = v*layout.getStride() + pos.offset;
+      for(int k=0; k<3; k++){
+        float f;
+        if(pos.type == GL_FLOAT) f = vb.getFloat(base+k*4);
+        else if(pos.type == GL_UNSIGNED_SHORT) f = (vb.getShort(base+k*2) & 0xffff) / 65535f;
+        else throw new IllegalStateException("unsupported position type "+pos.type);
+        out[v*3+k] = f*scale[k] + bias[k];
+      }
+    }
+    return out;
+  }
+  
+  //vertex indices of all triangles of a lod, with the base vertex of their part added
+  public int[] decodeTriangles(int lod){
+    ByteBuffer ib = getIndices();
+    int[] out = new int[getTriangleCount(lod)*3];
+    int n = 0;
+    for(int p=lods[lod]*3; p<lods[lod+1]*3; p+=3){
+      for(int i=parts[p]; i<parts[p]+parts[p+1]; i++){
+        int e;
+        if(indexType == GL_UNSIGNED_BYTE)       e = ib.get(i) & 0xff;
+        else if(indexType == GL_UNSIGNED_SHORT) e = ib.getShort(i*2) & 0xffff;
+        else                                    e = ib.getInt(i*4);
+        out[n++] = e + parts[p+2];
+      }
+    }
+    return out;
+  }
+  
+  //built on first use, triangle ids refer to decodeTriangles(0)
+  public synchronized TriangleBVH getPickTree(){
+    if(pickTree == null){
+      long t0 = System.nanoTime();
+      pickTree = new TriangleBVH(decodePositions(), decodeTriangles(0));
+      SimpleLogger.log("pick tree for "+getTriangleCount(0)+" tris, "+pickTree.getNodeCount()+" nodes in "+(System.nanoTime()-t0)/1000+"us", 1, Mesh.class, "getPickTree");
+    }
+    return pickTree;
+  }
+  
+  //not copied, as they are uploaded as uniforms for every draw
+  public Vector3f getPosScale(){
+    return posScale;
+  }
+  
+  public Vector3f getPosBias(){
+    return posBias;
+  }
+}
@@ -0,0 +1,149 @@
+package glGraphics;
+
+/**
+ *
+ * Binary on-disk cache for Meshes, so .obj files only have to be parsed once.
+ * Each source file gets one cache file in Ref.meshCacheDir with the following layout:
+ * 
+ *   int   magic ("SMSH")
+ *   int   version
+ *   int   byte order of the blocks (1 = little endian)
+ *   int   build flags
+ *   long  source modification time
+ *   long  source size
+ *   long  source hash
+ *   int   vertex count
+ *   int   index count
+ *   int   index type (gl enum)
+ *   int   reserved
+ *   long  vertex block offset, long vertex block size
+ *   long  index block offset,  long index block size
+ *   float position scale (3), float position bias (3)
+ *   ...   vertex layout (see VertexLayout.write)
+ *   int   part count, then first index, index count and base vertex per part
+ *   int   lod count, then the first part of each lod and the total part count
+ *   float bounding sphere center (3) and radius
+ *   float bounding box min (3) and max (3), min > max if the mesh has no box
+ *   ...   vertex block, index block (each 16 byte aligned)
+ *
+ * On read, the file is memory mapped and the blocks are sliced out of the mapping, so the data goes to
+ * glBufferData without being copied onto the java heap. The mapping is loaded into memory right away, so the page
+ * faults happen on the loading thread rather than in glBufferData (see glGraphics.registerConstructAsync).
+ * 
+ * A cache file is valid as long as the source mtime and size match. If they don't, the source is hashed;
+ * a matching hash only refreshes the stored mtime (e.g. after a checkout), otherwise the mesh gets rebuilt.
+ * Naming, mapping and replacing the file is done by CacheFile.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import util.Ref;
+import util.SimpleLogger;
+
+public class MeshCache {
+
+  private static final int MAGIC = 0x48534D53; //"SMSH" in little endian
+  private static final int VERSION = 7;
+  private static final int HEADER_SIZE = 112;
+  
+  public static File cacheFile(File src){
+    return CacheFile.of(Ref.meshCacheDir, src, ".smesh");
+  }
+  
+  //returns null if there is no valid cache entry for src
+  public static Mesh read(File src) throws IOException{
+    File cf = cacheFile(src);
+    
+    try{
+      MappedByteBuffer map = CacheFile.map(cf, HEADER_SIZE);
+      if(map == null) return null;
+      
+      if(map.getInt() != MAGIC) return null;
+      if(map.getInt() != VERSION) return null;
+      if(map.getInt() != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0)) return null;
+      if(map.getInt() != MeshLoader.getFlags()) return null;
+      if(!CacheFile.checkStamp(cf, map, src)) return null;
+      
+      int vCount = map.getInt();
+      int iCount = map.getInt();
+      int iType = map.getInt();
+      map.getInt();
+      long vOff = map.getLong();
+      long vLen = map.getLong();
+      long iOff = map.getLong();
+      long iLen = map.getLong();
+      float[] scale = {map.getFloat(), map.getFloat(), map.getFloat()};
+      float[] bias = {map.getFloat(), map.getFloat(), map.getFloat()};
+      VertexLayout layout = VertexLayout.read(map);
+      int[] parts = new int[map.getInt()*3];
+      for(int i=0; i<parts.length; i++) parts[i] = map.getInt();
+      int[] lods = new int[map.getInt()+1];
+      for(int i=0; i<lods.length; i++) lods[i] = map.getInt();
+      float[] sphere = {map.getFloat(), map.getFloat(), map.getFloat(), map.getFloat()};
+      float[] box = {map.getFloat(), map.getFloat(), map.getFloat(), map.getFloat(), map.getFloat(), map.getFloat()};
+      if(box[0] > box[3]) box = null;
+      
+      if(vOff + vLen > map.capacity() || iOff + iLen > map.capacity()) return null;
+      map.load();
+      
+      return new Mesh(layout, slice(map, vOff, vLen), vCount, slice(map, iOff, iLen), iCount, iType, parts, lods, scale, bias, sphere, box);
+    }catch(IOException | RuntimeException e){
+      SimpleLogger.log("Warning: broken mesh cache "+cf+": "+e, 0, MeshCache.class, "read");
+      return null;
+    }
+  }
+  
+  public static void write(File src, Mesh m) throws IOException{
+    ByteBuffer vb = m.getVertices();
+    ByteBuffer ib = m.getIndices();
+    VertexLayout layout = m.getLayout();
+    
+    int[] parts = m.getParts();
+    int[] lods = m.getLods();
+    long vOff = CacheFile.align(HEADER_SIZE + layout.byteSize() + (2+parts.length+lods.length)*(Integer.SIZE/8) + 10*(Float.SIZE/8));
+    long iOff = CacheFile.align(vOff + vb.remaining());
+    
+    ByteBuffer head = ByteBuffer.allocate((int)vOff).order(ByteOrder.LITTLE_ENDIAN);
+    head.putInt(MAGIC);
+    head.putInt(VERSION);
+    head.putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+    head.putInt(MeshLoader.getFlags());
+    CacheFile.putStamp(head, src);
+    head.putInt(m.getVertexCount());
+    head.putInt(m.getIndexCount());
+    head.putInt(m.getIndexType());
+    head.putInt(0);
+    head.putLong(vOff);
+    head.putLong(vb.remaining());
+    head.putLong(iOff);
+    head.putLong(ib.remaining());
+    head.putFloat(m.getPosScale().x);
+    head.putFloat(m.getPosScale().y);
+    head.putFloat(m.getPosScale().z);
+    head.putFloat(m.getPosBias().x);
+    head.putFloat(m.getPosBias().y);
+    head.putFloat(m.getPosBias().z);
+    layout.write(head);
+    head.putInt(parts.length/3);
+    for(int p : parts) head.putInt(p);
+    head.putInt(lods.length-1);
+    for(int l : lods) head.putInt(l);
+    for(float f : m.getBoundingSphere()) head.putFloat(f);
+    float[] box = m.getBoundingBox();
+    if(box == null) box = new float[]{1,1,1,0,0,0};
+    for(float f : box) head.putFloat(f);
+    head.position(0);
+    head.limit(head.capacity());
+    
+    CacheFile.write(cacheFile(src), new ByteBuffer[]{head, vb, ib}, new long[]{0, vOff, iOff});
+  }
+  
+  private static ByteBuffer slice(MappedByteBuffer map, long off, long len){
+    return CacheFile.slice(map, off, len).order(ByteOrder.nativeOrder());
+  }
+}
@@ -0,0 +1,217 @@
+package glGraphics;
+
+/**
+ *
+ * Turns .obj files into Meshes. A file is parsed only the first time it is seen (or after it changed),
+ * the result is written to the binary MeshCache and all later loads map the cached blocks directly.
+ *
+ * Building a mesh: parse with ObjParser (in parallel for files above Ref.parallelObjSize), weld identical corners (VertexWelder) and pack vertex and index
+ * data into direct buffers ready for glBufferData. With Ref.optimizeMeshes, triangles are reordered for the
+ * post-transform cache and vertices for fetch locality (see MeshOptimizer) before packing. With Ref.compactVertices
+ * the vertices are packed into 16 bytes instead of 32 (see VertexPacker). Indices use the narrowest type the vertex
+ * count allows, meshes above 65536 vertices are split into 16 bit parts if Ref.splitLargeMeshes is set (see IndexPacker).
+ * Up to Ref.lodLevels levels of detail are generated with MeshSimplifier and stored behind lod 0 in the same buffers.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import util.FloatList;
+import util.IntList;
+import util.Ref;
+import util.SimpleLogger;
+
+public class MeshLoader {
+
+  //options that change the resulting mesh, the lod count goes into bits 8-15 and the lod error (in 1/10000) into bits
+  //16-31. stored in the cache header, so a cache built differently is rebuilt
+  public static final int FLAG_OPTIMIZED = 1;
+  public static final int FLAG_COMPACT = 2;
+  public static final int FLAG_BYTE_INDICES = 4;
+  public static final int FLAG_SPLIT = 8;
+  
+  public static int getFlags(){
+    int f = 0;
+    if(Ref.optimizeMeshes) f |= FLAG_OPTIMIZED;
+    if(Ref.compactVertices) f |= FLAG_COMPACT;
+    if(Ref.byteIndices) f |= FLAG_BYTE_INDICES;
+    if(Ref.splitLargeMeshes) f |= FLAG_SPLIT;
+    f |= Math.min(Math.max(Ref.lodLevels, 1), 255) << 8;
+    f |= Math.min(Math.max(Math.round(Ref.lodMaxError*10000), 0), 0xFFFF) << 16;
+    return f;
+  }
+
+  public static Mesh load(String fn) throws IOException{
+    File src = new File(fn);
+    if(!src.isFile()) throw new IOException("no such mesh file: "+fn);
+    
+    long t0 = System.nanoTime();
+    Mesh m = MeshCache.read(src);
+    if(m != null){
+      SimpleLogger.log(fn+": mapped from cache in "+(System.nanoTime()-t0)/1000+"us", 1, MeshLoader.class, "load");
+      return m;
+    }
+    
+    m = build(fn);
+    SimpleLogger.log(fn+": parsed in "+(System.nanoTime()-t0)/1000+"us", 1, MeshLoader.class, "load");
+    
+    try{
+      MeshCache.write(src, m);
+    }catch(IOException e){
+      SimpleLogger.log("Warning: could not write mesh cache for "+fn+": "+e, 0, MeshLoader.class, "load");
+    }
+    return m;
+  }
+  
+  public static Mesh build(String fn) throws IOException{
+    //big files are split up and parsed on all cores, small ones aren't worth the overhead
+    ObjParser obj;
+    if(new File(fn).length() >= Ref.parallelObjSize) obj = ObjParser.parseParallel(fn);
+    else                                              obj = ObjParser.parse(fn);
+
+    float[] v = obj.positions.array();
+    float[] n = obj.normals.array();
+    float[] t = obj.texCoords.array();
+    int[] c = obj.corners.array();
+    int corners = obj.getCornerCount();
+
+    //build each face corner as a vertex of 8 floats and merge it with identical ones. missing normals or uvs become 0
+    VertexWelder welder = new VertexWelder(8, corners);
+    float[] vert = new float[8];
+    int[] elems = new int[corners];
+    for(int i=0; i<corners; i++){
+      int vi = c[i*3];
+      int ti = c[i*3+1];
+      int ni = c[i*3+2];
+
+      vert[0] = v[vi*3];
+      vert[1] = v[vi*3+1];
+      vert[2] = v[vi*3+2];
+
+      if(ni >= 0){
+        vert[3] = n[ni*3];
+        vert[4] = n[ni*3+1];
+        vert[5] = n[ni*3+2];
+      }else{
+        vert[3] = vert[4] = vert[5] = 0;
+      }
+
+      if(ti >= 0){
+        vert[6] = t[ti*2];
+        vert[7] = t[ti*2+1];
+      }else{
+        vert[6] = vert[7] = 0;
+      }
+      
+      elems[i] = welder.add(vert, 0);
+    }
+    float[] data = welder.toArray();
+    
+    //without welding, every corner was its own vertex and got transformed once
+    int unique = welder.getVertexCount();
+    SimpleLogger.log(fn+": VBO "+(corners*8*(Float.SIZE/8))+" -> "+(unique*8*(Float.SIZE/8))+" bytes, "
+                    +"vertex shader invocations "+corners+" -> "+MeshOptimizer.transformCount(elems, unique)
+                    +" ("+corners/3+" tris, "+unique+" unique vertices)", 1, MeshLoader.class, "build");
+    
+    //levels of detail, each with about half the triangles of the one before. they index the same vertices
+    float[] sphere = MeshSimplifier.boundingSphere(data, 8, unique);
+    float[] box = MeshSimplifier.boundingBox(data, 8, unique);
+    int[][] lods = buildLods(fn, data, elems, unique);
+    
+    if(Ref.optimizeMeshes){
+      float before = MeshOptimizer.acmr(elems, unique);
+      for(int l=0; l<lods.length; l++) lods[l] = MeshOptimizer.optimizeVertexCache(lods[l], unique);
+      //renumber over all lods at once, so lod 0 comes first and vertices only the coarse lods use are skipped
+      int[] all = concat(lods);
+      data = MeshOptimizer.remapVertices(data, 8, MeshOptimizer.optimizeVertexFetch(all, unique));
+      split(all, lods);
+      SimpleLogger.log(fn+": ACMR "+before+" -> "+MeshOptimizer.acmr(lods[0], unique), 1, MeshLoader.class, "build");
+    }
+    
+    //one part per lod, unless there are too many vertices for 16 bit indices: then lod 0 is broken up into parts
+    //that each fit, with their own copies of the vertices they use, and the coarser lods index into those parts
+    int[] lodParts = new int[lods.length+1];
+    int[] parts;
+    if(Ref.splitLargeMeshes && unique > IndexPacker.MAX_SHORT_VERTICES){
+      IndexPacker.Split split = IndexPacker.splitLods(data, 8, lods, unique);
+      SimpleLogger.log(fn+": split into "+split.parts.length/3+" parts, "+unique+" -> "+split.vertexCount+" vertices", 1, MeshLoader.class, "build");
+      data = split.vertices;
+      elems = split.elems;
+      parts = split.parts;
+      lodParts = split.lodParts;
+      unique = split.vertexCount;
+    }else{
+      parts = new int[lods.length*3];
+      int first = 0;
+      for(int l=0; l<lods.length; l++){
+        parts[l*3] = first;
+        parts[l*3+1] = lods[l].length;
+        first += lods[l].length;
+        lodParts[l+1] = l+1;
+      }
+      elems = concat(lods);
+    }
+    
+    VertexPacker.Packed packed;
+    if(Ref.compactVertices){
+      packed = VertexPacker.pack(data, unique, VertexPacker.POS_UNORM16, VertexPacker.NOR_INT_2_10_10_10, VertexPacker.UV_AUTO);
+    }else{
+      packed = VertexPacker.pack(data, unique, VertexPacker.POS_FLOAT, VertexPacker.NOR_FLOAT, VertexPacker.UV_FLOAT);
+    }
+    SimpleLogger.log(fn+": vertices packed to "+packed.layout.getStride()+" bytes each, VBO "+packed.vertices.capacity()+" bytes", 1, MeshLoader.class, "build");
+    
+    //the widest index of any part decides the type
+    int maxPart = 0;
+    for(int i=0; i<parts.length; i+=3){
+      for(int j=parts[i]; j<parts[i]+parts[i+1]; j++) maxPart = Math.max(maxPart, elems[j]+1);
+    }
+    int iType = IndexPacker.indexType(maxPart);
+    ByteBuffer ib = IndexPacker.pack(elems, iType);
+    SimpleLogger.log(fn+": "+IndexPacker.indexSize(iType)+" byte indices, EBO "+(elems.length*(Integer.SIZE/8))+" -> "+ib.capacity()+" bytes", 1, MeshLoader.class, "build");
+    
+    return new Mesh(packed.layout, packed.vertices, unique, ib, elems.length, iType, parts, lodParts, packed.posScale, packed.posBias, sphere, box);
+  }
+  
+  private static int[][] buildLods(String fn, float[] data, int[] elems, int vertexCount){
+    int[][] lods = new int[Math.max(Ref.lodLevels, 1)][];
+    lods[0] = elems;
+    int n = 1;
+    StringBuilder sb = new StringBuilder();
+    sb.append(elems.length/3);
+    
+    //each level is simplified from the previous one. stop once it hardly gets smaller, e.g. because every vertex is on a seam
+    while(n < lods.length){
+      int[] prev = lods[n-1];
+      int[] next = MeshSimplifier.simplify(data, 8, prev, vertexCount, (prev.length/6)*3, Ref.lodMaxError);
+      if(next.length == 0 || next.length > prev.length*0.9f) break;
+      lods[n++] = next;
+      sb.append(" -> ").append(next.length/3);
+    }
+    if(n > 1) SimpleLogger.log(fn+": "+n+" lods, "+sb+" tris", 1, MeshLoader.class, "buildLods");
+    return Arrays.copyOf(lods, n);
+  }
+  
+  private static int[] concat(int[][] lists){
+    int len = 0;
+    for(int[] l : lists) len += l.length;
+    int[] out = new int[len];
+    int pos = 0;
+    for(int[] l : lists){
+      System.arraycopy(l, 0, out, pos, l.length);
+      pos += l.length;
+    }
+    return out;
+  }
+  
+  //inverse of concat, the lists keep their lengths
+  private static void split(int[] all, int[][] lists){
+    int pos = 0;
+    for(int[] l : lists){
+      System.arraycopy(all, pos, l, 0, l.length);
+      pos += l.length;
+    }
+  }
+}
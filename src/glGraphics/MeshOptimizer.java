@@ -0,0 +1,228 @@
+package glGraphics;
+
+/**
+ *
+ * Collection of static helpers working on indexed triangle lists, as produced when loading Constructs.
+ * 
+ * The post-transform cache of the gpu is modelled as a FIFO holding the last CACHE_SIZE transformed vertices.
+ * Real hardware differs in detail, but the FIFO model is a good enough predictor to compare index orders.
+ * 
+ * optimizeVertexCache reorders triangles with Tom Forsyth's "linear-speed vertex cache optimisation": every vertex
+ * gets a score from its position in a simulated LRU cache and from how many triangles still need it, and the
+ * triangle with the highest score sum is emitted next. optimizeVertexFetch then renumbers the vertices in order of
+ * first use, so the vertex buffer is read mostly sequentially.
+ *
+ */
+
+import java.util.Arrays;
+
+public class MeshOptimizer {
+
+  public static final int CACHE_SIZE = 32;
+  
+  //number of vertex shader invocations needed to draw the index list with a FIFO cache of the given size
+  public static int transformCount(int[] elems, int vertexCount, int cacheSize){
+    int[] stamp = new int[vertexCount];
+    Arrays.fill(stamp, Integer.MIN_VALUE/2);
+    int misses = 0;
+    
+    for(int i=0; i<elems.length; i++){
+      int v = elems[i];
+      //a vertex is still cached, if less than cacheSize other vertices were inserted since it was
+      if(misses - stamp[v] >= cacheSize){
+        stamp[v] = misses;
+        misses++;
+      }
+    }
+    return misses;
+  }
+  
+  public static int transformCount(int[] elems, int vertexCount){
+    return transformCount(elems, vertexCount, CACHE_SIZE);
+  }
+  
+  //average cache miss ratio: transformed vertices per triangle. 0.5 is the optimum for regular grids, 3 the worst case
+  public static float acmr(int[] elems, int vertexCount){
+    if(elems.length == 0) return 0;
+    return transformCount(elems, vertexCount) / (float)(elems.length/3);
+  }
+  
+  
+  //scoring constants as proposed by Forsyth
+  private static final float CACHE_DECAY_POWER = 1.5f;
+  private static final float LAST_TRI_SCORE = 0.75f;
+  private static final float VALENCE_BOOST_SCALE = 2.0f;
+  private static final float VALENCE_BOOST_POWER = 0.5f;
+  
+  //returns a reordered copy of the triangle list
+  public static int[] optimizeVertexCache(int[] elems, int vertexCount){
+    int triCount = elems.length/3;
+    int[] out = new int[triCount*3];
+    if(triCount == 0) return out;
+    
+    //triangle adjacency per vertex, as offsets into one flat array
+    int[] remaining = new int[vertexCount];
+    for(int i=0; i<elems.length; i++) remaining[elems[i]]++;
+    
+    int[] adjOffset = new int[vertexCount+1];
+    for(int v=0; v<vertexCount; v++) adjOffset[v+1] = adjOffset[v] + remaining[v];
+    
+    int[] adj = new int[elems.length];
+    int[] fill = new int[vertexCount];
+    for(int t=0; t<triCount; t++){
+      for(int k=0; k<3; k++){
+        int v = elems[t*3+k];
+        adj[adjOffset[v] + fill[v]++] = t;
+      }
+    }
+    
+    int[] cachePos = new int[vertexCount];
+    float[] vScore = new float[vertexCount];
+    for(int v=0; v<vertexCount; v++){
+      cachePos[v] = -1;
+      vScore[v] = vertexScore(-1, remaining[v]);
+    }
+    
+    float[] tScore = new float[triCount];
+    boolean[] emitted = new boolean[triCount];
+    for(int t=0; t<triCount; t++){
+      tScore[t] = vScore[elems[t*3]] + vScore[elems[t*3+1]] + vScore[elems[t*3+2]];
+    }
+    
+    //lru cache, with room for the 3 vertices that get pushed in front before trimming
+    int[] cache = new int[CACHE_SIZE+3];
+    int[] newCache = new int[CACHE_SIZE+3];
+    int cacheCount = 0;
+    
+    int best = -1;
+    float bestScore = -1;
+    for(int t=0; t<triCount; t++){
+      if(tScore[t] > bestScore){
+        bestScore = tScore[t];
+        best = t;
+      }
+    }
+    
+    //fallback cursor for when no cached vertex has triangles left
+    int scan = 0;
+    
+    for(int o=0; o<triCount; o++){
+      if(best == -1){
+        while(emitted[scan]) scan++;
+        best = scan;
+      }
+      
+      emitted[best] = true;
+      int a = elems[best*3];
+      int b = elems[best*3+1];
+      int c = elems[best*3+2];
+      out[o*3]   = a;
+      out[o*3+1] = b;
+      out[o*3+2] = c;
+      
+      //the emitted vertices go to the front of the cache, the rest keeps its order
+      int n = 0;
+      newCache[n++] = a;
+      newCache[n++] = b;
+      newCache[n++] = c;
+      for(int i=0; i<cacheCount; i++){
+        int v = cache[i];
+        if(v != a && v != b && v != c) newCache[n++] = v;
+      }
+      
+      //the triangle no longer counts for the valence of its vertices
+      removeTri(adj, adjOffset, remaining, a, best);
+      removeTri(adj, adjOffset, remaining, b, best);
+      removeTri(adj, adjOffset, remaining, c, best);
+      
+      //update scores of everything that was or is in the cache
+      for(int i=0; i<n; i++){
+        int v = newCache[i];
+        cachePos[v] = i < CACHE_SIZE ? i : -1;
+        vScore[v] = vertexScore(cachePos[v], remaining[v]);
+      }
+      
+      best = -1;
+      bestScore = -1;
+      for(int i=0; i<n; i++){
+        int v = newCache[i];
+        for(int j=adjOffset[v]; j<adjOffset[v]+remaining[v]; j++){
+          int t = adj[j];
+          float sc = vScore[elems[t*3]] + vScore[elems[t*3+1]] + vScore[elems[t*3+2]];
+          tScore[t] = sc;
+          if(sc > bestScore){
+            bestScore = sc;
+            best = t;
+          }
+        }
+      }
+      
+      int[] tmp = cache;
+      cache = newCache;
+      newCache = tmp;
+      cacheCount = Math.min(n, CACHE_SIZE);
+    }
+    
+    return out;
+  }
+  
+  private static float vertexScore(int cachePosition, int remainingTris){
+    if(remainingTris == 0) return -1;
+    
+    float score = 0;
+    if(cachePosition >= 0){
+      if(cachePosition < 3){
+        //the vertices of the last triangle get a fixed score, so the algorithm doesn't prefer
+        //strips over fans just because they reuse the most recent edge
+        score = LAST_TRI_SCORE;
+      }else{
+        float s = 1.0f - (cachePosition-3) * (1.0f/(CACHE_SIZE-3));
+        score = (float)Math.pow(s, CACHE_DECAY_POWER);
+      }
+    }
+    
+    //vertices with few remaining triangles are preferred, to get rid of lone triangles early
+    score += VALENCE_BOOST_SCALE * (float)Math.pow(remainingTris, -VALENCE_BOOST_POWER);
+    return score;
+  }
+  
+  private static void removeTri(int[] adj, int[] adjOffset, int[] remaining, int v, int tri){
+    int start = adjOffset[v];
+    int end = start + remaining[v];
+    for(int i=start; i<end; i++){
+      if(adj[i] == tri){
+        adj[i] = adj[end-1];
+        remaining[v]--;
+        return;
+      }
+    }
+  }
+  
+  //renumbers the vertices in order of first use. rewrites elems in place and returns the old->new mapping
+  public static int[] optimizeVertexFetch(int[] elems, int vertexCount){
+    int[] remap = new int[vertexCount];
+    Arrays.fill(remap, -1);
+    int next = 0;
+    
+    for(int i=0; i<elems.length; i++){
+      int v = elems[i];
+      if(remap[v] == -1) remap[v] = next++;
+      elems[i] = remap[v];
+    }
+    
+    //unreferenced vertices go to the end
+    for(int v=0; v<vertexCount; v++){
+      if(remap[v] == -1) remap[v] = next++;
+    }
+    return remap;
+  }
+  
+  //applies a remap from optimizeVertexFetch to interleaved vertex data
+  public static float[] remapVertices(float[] data, int stride, int[] remap){
+    float[] res = new float[data.length];
+    for(int v=0; v<remap.length; v++){
+      System.arraycopy(data, v*stride, res, remap[v]*stride, stride);
+    }
+    return res;
+  }
+}
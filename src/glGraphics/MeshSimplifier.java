@@ -0,0 +1,263 @@
+package glGraphics;
+
+/**
+ *
+ * Reduces the triangle count of an indexed mesh by collapsing edges, ranked by the quadric error metric of
+ * Garland and Heckbert: every position accumulates the planes of its triangles (area weighted), and moving it
+ * onto a neighbour costs the summed squared distance to those planes.
+ *
+ * Vertices are only ever collapsed onto existing vertices, so the result is a new index list into the same vertex
+ * data and all levels of detail can share one vertex buffer.
+ *
+ * Vertices whose position is used by more than one vertex (uv or normal seams, hard edges) and vertices on open
+ * borders are locked, so seams and silhouettes of the source stay where they are.
+ *
+ * Collapses run in passes: all candidate edges are sorted by cost, and the cheapest ones that don't touch each
+ * other's neighbourhood and don't flip a triangle are applied together.
+ *
+ */
+
+import java.util.Arrays;
+
+public class MeshSimplifier {
+
+  //collapses that turn a triangle normal more than this (cosine) are rejected
+  private static final double MIN_NORMAL_DOT = 0.2;
+  private static final int MAX_PASSES = 64;
+
+  /*
+   * returns a new index list with at most targetIndexCount indices, or as few as possible without an error above
+   * maxError. maxError is a distance relative to the diameter of the bounding sphere.
+   *
+   * positions are read from the first 3 floats of every vertex in data
+   */
+  public static int[] simplify(float[] data, int stride, int[] elems, int vertexCount, int targetIndexCount, float maxError){
+    int[] idx = elems.clone();
+    if(idx.length <= targetIndexCount) return idx;
+
+    //vertices sharing a position form a group, quadrics and borders are tracked per group
+    VertexWelder welder = new VertexWelder(3, vertexCount);
+    int[] group = new int[vertexCount];
+    for(int v=0; v<vertexCount; v++) group[v] = welder.add(data, v*stride);
+    int groupCount = welder.getVertexCount();
+
+    int[] groupSize = new int[groupCount];
+    for(int v=0; v<vertexCount; v++) groupSize[group[v]]++;
+
+    boolean[] locked = new boolean[vertexCount];
+    boolean[] border = findBorders(idx, group, groupCount);
+    for(int v=0; v<vertexCount; v++) locked[v] = groupSize[group[v]] > 1 || border[group[v]];
+
+    double[] q = new double[groupCount*11];
+    for(int t=0; t<idx.length; t+=3) addTriangleQuadric(q, data, stride, idx[t], idx[t+1], idx[t+2], group);
+
+    float diag = diagonal(data, stride, vertexCount);
+    double maxCost = (double)maxError*diag*maxError*diag;
+
+    int[] remap = new int[vertexCount];
+    int[] mark = new int[vertexCount];
+
+    for(int pass=1; pass<=MAX_PASSES && idx.length > targetIndexCount; pass++){
+      int triCount = idx.length/3;
+
+      //triangle adjacency per vertex
+      int[] adjOffset = new int[vertexCount+1];
+      for(int i=0; i<idx.length; i++) adjOffset[idx[i]+1]++;
+      for(int v=0; v<vertexCount; v++) adjOffset[v+1] += adjOffset[v];
+      int[] adj = new int[idx.length];
+      int[] fill = Arrays.copyOf(adjOffset, vertexCount);
+      for(int t=0; t<triCount; t++){
+        for(int k=0; k<3; k++) adj[fill[idx[t*3+k]]++] = t;
+      }
+
+      //every directed edge from an unlocked vertex is a candidate. costs are positive, so their float bits sort like
+      //the floats and go into the upper half of a long, with the candidate in the lower half
+      int[] from = new int[idx.length*2];
+      int[] to = new int[idx.length*2];
+      long[] order = new long[idx.length*2];
+      int candidates = 0;
+      for(int t=0; t<idx.length; t+=3){
+        for(int k=0; k<3; k++){
+          int a = idx[t+k];
+          int b = idx[t+(k+1)%3];
+          for(int dir=0; dir<2; dir++){
+            if(!locked[a] && group[a] != group[b]){
+              double c = evaluate(q, group[a], data, stride, b);
+              if(c <= maxCost){
+                from[candidates] = a;
+                to[candidates] = b;
+                order[candidates] = ((long)Float.floatToIntBits((float)Math.max(c, 0)) << 32) | candidates;
+                candidates++;
+              }
+            }
+            int s = a; a = b; b = s;
+          }
+        }
+      }
+      if(candidates == 0) break;
+      Arrays.sort(order, 0, candidates);
+
+      for(int v=0; v<vertexCount; v++) remap[v] = v;
+      int removable = (idx.length - targetIndexCount)/3;
+      int removed = 0;
+      int collapses = 0;
+
+      for(int i=0; i<candidates && removed < removable; i++){
+        int ci = (int)order[i];
+        int a = from[ci];
+        int b = to[ci];
+        if(mark[a] == pass || mark[b] == pass) continue;
+        if(flips(data, stride, idx, adj, adjOffset[a], adjOffset[a+1], a, b)) continue;
+
+        remap[a] = b;
+        collapses++;
+        for(int j=0; j<11; j++) q[group[b]*11+j] += q[group[a]*11+j];
+
+        //the neighbourhood of a changes shape, nothing in it may collapse again this pass
+        for(int j=adjOffset[a]; j<adjOffset[a+1]; j++){
+          int t = adj[j]*3;
+          boolean hasB = false;
+          for(int k=0; k<3; k++){
+            mark[idx[t+k]] = pass;
+            if(idx[t+k] == b) hasB = true;
+          }
+          if(hasB) removed++;
+        }
+      }
+      if(collapses == 0) break;
+
+      //apply the collapses and drop triangles that became degenerate
+      int n = 0;
+      for(int t=0; t<idx.length; t+=3){
+        int a = remap[idx[t]];
+        int b = remap[idx[t+1]];
+        int c = remap[idx[t+2]];
+        if(group[a] == group[b] || group[b] == group[c] || group[c] == group[a]) continue;
+        idx[n++] = a;
+        idx[n++] = b;
+        idx[n++] = c;
+      }
+      idx = Arrays.copyOf(idx, n);
+    }
+    return idx;
+  }
+
+  //center (3) and radius of a sphere enclosing all positions: the center of the bounds and the farthest vertex from it
+  public static float[] boundingSphere(float[] data, int stride, int vertexCount){
+    if(vertexCount == 0) return new float[4];
+    float[] b = boundingBox(data, stride, vertexCount);
+    float[] s = {(b[0]+b[3])/2, (b[1]+b[4])/2, (b[2]+b[5])/2, 0};
+    float r2 = 0;
+    for(int v=0; v<vertexCount; v++){
+      float dx = data[v*stride]-s[0], dy = data[v*stride+1]-s[1], dz = data[v*stride+2]-s[2];
+      r2 = Math.max(r2, dx*dx + dy*dy + dz*dz);
+    }
+    s[3] = (float)Math.sqrt(r2);
+    return s;
+  }
+
+  //min x,y,z and max x,y,z of all positions
+  public static float[] boundingBox(float[] data, int stride, int vertexCount){
+    if(vertexCount == 0) return new float[6];
+    float[] b = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    for(int v=0; v<vertexCount; v++){
+      for(int k=0; k<3; k++){
+        b[k] = Math.min(b[k], data[v*stride+k]);
+        b[k+3] = Math.max(b[k+3], data[v*stride+k]);
+      }
+    }
+    return b;
+  }
+  
+  //groups with an edge that only one triangle uses
+  private static boolean[] findBorders(int[] idx, int[] group, int groupCount){
+    long[] edges = new long[idx.length];
+    for(int t=0; t<idx.length; t+=3){
+      for(int k=0; k<3; k++){
+        long a = group[idx[t+k]];
+        long b = group[idx[t+(k+1)%3]];
+        edges[t+k] = a < b ? (a << 32) | b : (b << 32) | a;
+      }
+    }
+    Arrays.sort(edges);
+
+    boolean[] border = new boolean[groupCount];
+    for(int i=0; i<edges.length; ){
+      int j = i;
+      while(j < edges.length && edges[j] == edges[i]) j++;
+      if(j - i == 1){
+        border[(int)(edges[i] >>> 32)] = true;
+        border[(int)edges[i]] = true;
+      }
+      i = j;
+    }
+    return border;
+  }
+
+  //a quadric is stored as the upper triangle of the symmetric 4x4 plane matrix (10 values) plus its weight
+  private static void addTriangleQuadric(double[] q, float[] data, int stride, int i0, int i1, int i2, int[] group){
+    double ux = data[i1*stride]-data[i0*stride], uy = data[i1*stride+1]-data[i0*stride+1], uz = data[i1*stride+2]-data[i0*stride+2];
+    double vx = data[i2*stride]-data[i0*stride], vy = data[i2*stride+1]-data[i0*stride+1], vz = data[i2*stride+2]-data[i0*stride+2];
+    double nx = uy*vz - uz*vy;
+    double ny = uz*vx - ux*vz;
+    double nz = ux*vy - uy*vx;
+    double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+    if(len == 0) return;
+
+    double w = len/2;
+    nx /= len; ny /= len; nz /= len;
+    double d = -(nx*data[i0*stride] + ny*data[i0*stride+1] + nz*data[i0*stride+2]);
+
+    int[] corners = {i0, i1, i2};
+    for(int c : corners){
+      int o = group[c]*11;
+      q[o]   += w*nx*nx; q[o+1] += w*nx*ny; q[o+2] += w*nx*nz; q[o+3] += w*nx*d;
+      q[o+4] += w*ny*ny; q[o+5] += w*ny*nz; q[o+6] += w*ny*d;
+      q[o+7] += w*nz*nz; q[o+8] += w*nz*d;
+      q[o+9] += w*d*d;
+      q[o+10] += w;
+    }
+  }
+
+  //weighted mean squared distance of the position of vertex v to the planes in quadric g
+  private static double evaluate(double[] q, int g, float[] data, int stride, int v){
+    int o = g*11;
+    if(q[o+10] == 0) return 0;
+    double x = data[v*stride], y = data[v*stride+1], z = data[v*stride+2];
+    double e = q[o]*x*x + 2*q[o+1]*x*y + 2*q[o+2]*x*z + 2*q[o+3]*x
+             + q[o+4]*y*y + 2*q[o+5]*y*z + 2*q[o+6]*y
+             + q[o+7]*z*z + 2*q[o+8]*z
+             + q[o+9];
+    return e / q[o+10];
+  }
+
+  //whether moving a onto b turns one of the surviving triangles around a over
+  private static boolean flips(float[] data, int stride, int[] idx, int[] adj, int begin, int end, int a, int b){
+    for(int j=begin; j<end; j++){
+      int t = adj[j]*3;
+      if(idx[t] == b || idx[t+1] == b || idx[t+2] == b) continue;
+
+      int k = idx[t] == a ? 0 : idx[t+1] == a ? 1 : 2;
+      int p1 = idx[t+(k+1)%3];
+      int p2 = idx[t+(k+2)%3];
+
+      double[] n0 = normal(data, stride, a, p1, p2);
+      double[] n1 = normal(data, stride, b, p1, p2);
+      double l = Math.sqrt((n0[0]*n0[0] + n0[1]*n0[1] + n0[2]*n0[2]) * (n1[0]*n1[0] + n1[1]*n1[1] + n1[2]*n1[2]));
+      if(l == 0) return true;
+      if(n0[0]*n1[0] + n0[1]*n1[1] + n0[2]*n1[2] < MIN_NORMAL_DOT*l) return true;
+    }
+    return false;
+  }
+
+  private static double[] normal(float[] data, int stride, int i0, int i1, int i2){
+    double ux = data[i1*stride]-data[i0*stride], uy = data[i1*stride+1]-data[i0*stride+1], uz = data[i1*stride+2]-data[i0*stride+2];
+    double vx = data[i2*stride]-data[i0*stride], vy = data[i2*stride+1]-data[i0*stride+1], vz = data[i2*stride+2]-data[i0*stride+2];
+    return new double[]{uy*vz - uz*vy, uz*vx - ux*vz, ux*vy - uy*vx};
+  }
+
+  private static float diagonal(float[] data, int stride, int vertexCount){
+    float[] s = boundingSphere(data, stride, vertexCount);
+    return Math.max(s[3]*2, Float.MIN_NORMAL);
+  }
+}
@@ -0,0 +1,293 @@
+package glGraphics;
+
+/**
+ *
+ * Builds mip chains of RGBA images on the cpu, so they can be compressed (see BCEncoder) and stored, or uploaded
+ * level by level instead of calling glGenerateMipmap. The result is the same on every driver.
+ *
+ * Each level is filtered from the one above with a separable filter:
+ *
+ *   BOX      2x2 average, what glGenerateMipmap does on most drivers. blurry and aliases
+ *   KAISER   sinc windowed by a Kaiser window (width 3, alpha 4). sharp with little ringing
+ *   LANCZOS  sinc windowed by sinc (3 lobes). a bit sharper, a bit more ringing
+ *
+ * Filter weights are computed once per level and axis. Odd sizes are handled by the weights (the footprint of a
+ * pixel is scaled by the exact ratio of the sizes), samples outside the image repeat its border. With gamma
+ * correction, colors are converted from sRGB to linear before filtering and back afterwards, so downsampled
+ * images keep their brightness; alpha is always filtered as it is.
+ *
+ * A level is split into bands of rows that are filtered in parallel on the common ForkJoinPool. Each band filters
+ * the source rows it needs horizontally into its own buffer first, then vertically into the output.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import util.Ref;
+
+public class MipGenerator {
+
+  public static final int BOX = 0;
+  public static final int KAISER = 1;
+  public static final int LANCZOS = 2;
+
+  //rows per task
+  private static final int GRAIN = 32;
+
+  private static final float KAISER_ALPHA = 4;
+  private static final float KAISER_WIDTH = 3;
+  private static final float LANCZOS_LOBES = 3;
+
+  //sRGB byte to linear, and linear in 1/(TO_SRGB.length-1) steps to sRGB byte
+  private static final float[] TO_LINEAR = new float[256];
+  private static final byte[] TO_SRGB = new byte[16384];
+  //byte to 0..1 without gamma
+  private static final float[] TO_UNIT = new float[256];
+
+  static{
+    for(int i=0; i<256; i++){
+      float c = i/255f;
+      TO_LINEAR[i] = c <= 0.04045f ? c/12.92f : (float)Math.pow((c+0.055)/1.055, 2.4);
+      TO_UNIT[i] = c;
+    }
+    for(int i=0; i<TO_SRGB.length; i++){
+      double l = (double)i/(TO_SRGB.length-1);
+      double s = l <= 0.0031308 ? l*12.92 : 1.055*Math.pow(l, 1/2.4) - 0.055;
+      TO_SRGB[i] = (byte)Math.round(s*255);
+    }
+  }
+
+  //taps of one axis: source index and weight of each tap, taps per output pixel
+  private static class Weights{
+    private final int taps;
+    private final int[] index;
+    private final float[] weight;
+
+    public Weights(int t, int[] i, float[] w){
+      taps = t;
+      index = i;
+      weight = w;
+    }
+  }
+
+  //base level first, down to 1x1, with the filter from Ref
+  public static TextureLoader.Image[] chain(TextureLoader.Image base){
+    return chain(base, Ref.mipFilter, Ref.mipGammaCorrect);
+  }
+
+  public static TextureLoader.Image[] chain(TextureLoader.Image base, int filter, boolean gamma){
+    int levels = levelCount(base.width, base.height);
+    TextureLoader.Image[] chain = new TextureLoader.Image[levels];
+    chain[0] = base;
+    for(int l=1; l<levels; l++) chain[l] = downsample(chain[l-1], filter, gamma);
+    return chain;
+  }
+
+  public static int levelCount(int w, int h){
+    int levels = 1;
+    while(w > 1 || h > 1){
+      w = Math.max(1, w/2);
+      h = Math.max(1, h/2);
+      levels++;
+    }
+    return levels;
+  }
+
+  //bytes of all levels of an RGBA image
+  public static long chainBytes(int w, int h){
+    long s = 0;
+    for(int l=levelCount(w, h); l>0; l--){
+      s += 4L*w*h;
+      w = Math.max(1, w/2);
+      h = Math.max(1, h/2);
+    }
+    return s;
+  }
+
+  //the next level, with the filter from Ref
+  public static TextureLoader.Image downsample(TextureLoader.Image src){
+    return downsample(src, Ref.mipFilter, Ref.mipGammaCorrect);
+  }
+
+  public static TextureLoader.Image downsample(final TextureLoader.Image src, int filter, boolean gamma){
+    final int w = Math.max(1, src.width/2);
+    final int h = Math.max(1, src.height/2);
+    final ByteBuffer dst = ByteBuffer.allocateDirect(w*h*4);
+    final Weights hw = weights(src.width, w, filter);
+    final Weights vw = weights(src.height, h, filter);
+    final float[] toFloat = gamma ? TO_LINEAR : TO_UNIT;
+    final boolean srgb = gamma;
+
+    forRows(h, new RowTask(){
+      @Override
+      public void run(int begin, int end){
+        //source rows needed by this band
+        int s0 = Integer.MAX_VALUE, s1 = 0;
+        for(int i=begin*vw.taps; i<end*vw.taps; i++){
+          s0 = Math.min(s0, vw.index[i]);
+          s1 = Math.max(s1, vw.index[i]+1);
+        }
+
+        //horizontal pass
+        byte[] in = new byte[src.width*4];
+        float[] row = new float[src.width*4];
+        float[] tmp = new float[(s1-s0)*w*4];
+        ByteBuffer pixels = src.pixels.duplicate();
+        for(int sy=s0; sy<s1; sy++){
+          pixels.position(sy*src.width*4);
+          pixels.get(in);
+          for(int i=0; i<in.length; i+=4){
+            row[i]   = toFloat[in[i] & 0xff];
+            row[i+1] = toFloat[in[i+1] & 0xff];
+            row[i+2] = toFloat[in[i+2] & 0xff];
+            row[i+3] = TO_UNIT[in[i+3] & 0xff];
+          }
+          int o = (sy-s0)*w*4;
+          for(int x=0; x<w; x++){
+            float r = 0, g = 0, b = 0, a = 0;
+            for(int k=x*hw.taps; k<(x+1)*hw.taps; k++){
+              int p = hw.index[k]*4;
+              float f = hw.weight[k];
+              r += f*row[p];
+              g += f*row[p+1];
+              b += f*row[p+2];
+              a += f*row[p+3];
+            }
+            tmp[o++] = r;
+            tmp[o++] = g;
+            tmp[o++] = b;
+            tmp[o++] = a;
+          }
+        }
+
+        //vertical pass
+        byte[] out = new byte[w*4];
+        ByteBuffer target = dst.duplicate();
+        for(int y=begin; y<end; y++){
+          for(int x=0; x<w; x++){
+            float r = 0, g = 0, b = 0, a = 0;
+            for(int k=y*vw.taps; k<(y+1)*vw.taps; k++){
+              int p = ((vw.index[k]-s0)*w + x)*4;
+              float f = vw.weight[k];
+              r += f*tmp[p];
+              g += f*tmp[p+1];
+              b += f*tmp[p+2];
+              a += f*tmp[p+3];
+            }
+            out[x*4]   = encode(r, srgb);
+            out[x*4+1] = encode(g, srgb);
+            out[x*4+2] = encode(b, srgb);
+            out[x*4+3] = encode(a, false);
+          }
+          target.position(y*w*4);
+          target.put(out);
+        }
+      }
+    });
+    return new TextureLoader.Image(w, h, dst);
+  }
+
+  private static byte encode(float v, boolean srgb){
+    //the negative lobes of the sinc filters overshoot
+    if(v <= 0) return 0;
+    if(v >= 1) return (byte)255;
+    if(srgb) return TO_SRGB[(int)(v*(TO_SRGB.length-1) + 0.5f)];
+    return (byte)(int)(v*255 + 0.5f);
+  }
+
+  //the filter centered on each output pixel, scaled to its footprint in the source and normalized
+  private static Weights weights(int srcSize, int dstSize, int filter){
+    float scale = (float)srcSize/dstSize;
+    float radius = filter == BOX ? 0.5f : filter == KAISER ? KAISER_WIDTH : LANCZOS_LOBES;
+    int taps = (int)Math.ceil(2*radius*scale) + 1;
+
+    int[] index = new int[dstSize*taps];
+    float[] weight = new float[dstSize*taps];
+    for(int x=0; x<dstSize; x++){
+      float center = (x+0.5f)*scale;
+      int first = (int)Math.floor(center - radius*scale);
+      float sum = 0;
+      for(int t=0; t<taps; t++){
+        int i = first+t;
+        float f = kernel(filter, ((i+0.5f) - center)/scale);
+        index[x*taps+t] = Math.max(0, Math.min(srcSize-1, i));
+        weight[x*taps+t] = f;
+        sum += f;
+      }
+      for(int t=0; t<taps; t++) weight[x*taps+t] /= sum;
+    }
+    return new Weights(taps, index, weight);
+  }
+
+  private static float kernel(int filter, float x){
+    x = Math.abs(x);
+    switch(filter){
+    case BOX:
+      return x <= 0.5f ? 1 : 0;
+    case KAISER:
+      if(x >= KAISER_WIDTH) return 0;
+      float r = x/KAISER_WIDTH;
+      return sinc(x) * bessel0(KAISER_ALPHA*(float)Math.sqrt(1 - r*r)) / bessel0(KAISER_ALPHA);
+    case LANCZOS:
+      if(x >= LANCZOS_LOBES) return 0;
+      return sinc(x) * sinc(x/LANCZOS_LOBES);
+    default:
+      throw new IllegalArgumentException("unknown mip filter "+filter);
+    }
+  }
+
+  private static float sinc(float x){
+    if(x < 1e-5f) return 1;
+    double px = Math.PI*x;
+    return (float)(Math.sin(px)/px);
+  }
+
+  //modified bessel function of the first kind, order 0
+  private static float bessel0(float x){
+    double sum = 1, term = 1;
+    double q = x*x/4.0;
+    for(int k=1; k<32 && term > 1e-12*sum; k++){
+      term *= q/(k*k);
+      sum += term;
+    }
+    return (float)sum;
+  }
+
+
+  interface RowTask{
+    void run(int begin, int end);
+  }
+
+  //runs task over [0, rows) in chunks of GRAIN rows, in parallel
+  static void forRows(final int rows, final RowTask task){
+    if(rows <= GRAIN){
+      task.run(0, rows);
+      return;
+    }
+    ForkJoinPool.commonPool().invoke(new RowAction(0, rows, task));
+  }
+
+  private static class RowAction extends RecursiveAction{
+    private static final long serialVersionUID = 1L;
+    private final int begin, end;
+    private final RowTask task;
+
+    public RowAction(int b, int e, RowTask t){
+      begin = b;
+      end = e;
+      task = t;
+    }
+
+    @Override
+    protected void compute(){
+      if(end - begin <= GRAIN){
+        task.run(begin, end);
+        return;
+      }
+      int mid = (begin+end) >>> 1;
+      invokeAll(new RowAction(begin, mid, task), new RowAction(mid, end, task));
+    }
+  }
+}
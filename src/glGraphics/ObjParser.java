@@ -0,0 +1,477 @@
+package glGraphics;
+
+/**
+ *
+ * Streaming parser for wavefront .obj files. The file is read in blocks into a single reusable byte buffer
+ * and tokenized in place, so no String objects are created per line or per token. Vertex attributes and faces
+ * are collected in primitive arrays (FloatList/IntList), which grow by doubling. Loading a file is therefore
+ * linear in its size and only needs O(log n) allocations.
+ *
+ * Supported records are v, vn, vt and f. Every other line (comments, groups, materials, ...) is skipped.
+ * Faces with more than 3 corners are triangulated as a fan. Face indices may be absolute (1-based) or
+ * relative (negative). A corner without uv or normal index gets -1 in that slot.
+ *
+ * Parsed corners are stored as (position, texCoord, normal) index triplets, 0-based.
+ *
+ * For very large files there is a parallel mode (parseParallel). The file is memory mapped in chunks that end
+ * on line boundaries, every chunk is parsed by its own ObjParser in a fork-join pool, and the per-chunk arrays
+ * are stitched together at offsets given by prefix sums over the chunk sizes. Absolute face indices already refer
+ * to the whole file. Relative ones are resolved against the chunk and shifted by the number of attributes in the
+ * preceding chunks, so the result is identical to the sequential parser.
+ *
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import util.FloatList;
+import util.IntList;
+
+public class ObjParser {
+
+  private static final int BLOCK_SIZE = 1 << 16;
+  
+  //target size of a chunk in parallel mode. small enough to balance the load, big enough to keep the stitching cheap
+  private static final long CHUNK_SIZE = 8L << 20;
+
+  //exact powers of ten representable as double. used to scale the parsed mantissa in one step
+  private static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  public final FloatList positions;
+  public final FloatList normals;
+  public final FloatList texCoords;
+  public final IntList corners;
+  
+  //slots in corners holding a chunk-local index that came from a relative (negative) obj index
+  private final IntList relative;
+
+  //cursor inside the current line, shared by all the small tokenizing methods
+  private int pos;
+  private int lineNo;
+  private long chunkStart;
+
+  //first and previous corner of the current face, for fan triangulation. the masks flag relative indices
+  private int f0p, f0t, f0n, f0m;
+  private int fpp, fpt, fpn, fpm;
+
+  public ObjParser(){
+    positions = new FloatList(1024);
+    normals = new FloatList(1024);
+    texCoords = new FloatList(1024);
+    corners = new IntList(4096);
+    relative = new IntList(16);
+  }
+
+  public static ObjParser parse(String fn) throws IOException{
+    ObjParser p = new ObjParser();
+    p.read(fn);
+    return p;
+  }
+
+  public static ObjParser parseParallel(String fn) throws IOException{
+    return parseParallel(fn, CHUNK_SIZE);
+  }
+  
+  static ObjParser parseParallel(String fn, long chunkSize) throws IOException{
+    final ObjParser[] chunks;
+    
+    try(FileChannel ch = FileChannel.open(Paths.get(fn), StandardOpenOption.READ)){
+      long[] bounds = findChunks(ch, chunkSize);
+      
+      chunks = new ObjParser[bounds.length-1];
+      final MappedByteBuffer[] maps = new MappedByteBuffer[chunks.length];
+      for(int i=0; i<chunks.length; i++){
+        chunks[i] = new ObjParser();
+        chunks[i].chunkStart = bounds[i];
+        maps[i] = ch.map(MapMode.READ_ONLY, bounds[i], bounds[i+1]-bounds[i]);
+      }
+      
+      final IOException[] errors = new IOException[chunks.length];
+      List<RecursiveAction> tasks = new ArrayList<>();
+      for(int i=0; i<chunks.length; i++){
+        final int c = i;
+        tasks.add(new RecursiveAction(){
+          private static final long serialVersionUID = 1L;
+          @Override
+          protected void compute(){
+            try{
+              chunks[c].readChunk(maps[c]);
+            }catch(IOException e){
+              errors[c] = e;
+            }
+          }
+        });
+      }
+      runAll(tasks);
+      
+      for(IOException e : errors){
+        if(e != null) throw e;
+      }
+    }
+    
+    return stitch(chunks);
+  }
+
+  public int getVertexCount(){
+    return positions.size()/3;
+  }
+
+  public int getNormalCount(){
+    return normals.size()/3;
+  }
+
+  public int getTexCoordCount(){
+    return texCoords.size()/2;
+  }
+
+  public int getCornerCount(){
+    return corners.size()/3;
+  }
+
+  private void read(String fn) throws IOException{
+    try(FileChannel ch = FileChannel.open(Paths.get(fn), StandardOpenOption.READ)){
+      ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+      boolean eof = false;
+      lineNo = 0;
+
+      while(!eof){
+        if(ch.read(buf) == -1) eof = true;
+        buf.flip();
+
+        int start = 0;
+        int lim = buf.limit();
+        for(int i=0; i<lim; i++){
+          if(buf.get(i) == '\n'){
+            lineNo++;
+            parseLine(buf, start, i);
+            start = i+1;
+          }
+        }
+
+        if(eof){
+          //last line without a trailing newline
+          lineNo++;
+          if(start < lim) parseLine(buf, start, lim);
+        }else{
+          //keep the incomplete line for the next block
+          buf.position(start);
+          buf.compact();
+          if(!buf.hasRemaining()){
+            //a single line is longer than the whole buffer
+            ByteBuffer bigger = ByteBuffer.allocate(buf.capacity()*2);
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+          }
+        }
+      }
+    }
+  }
+
+  private void readChunk(ByteBuffer b) throws IOException{
+    int start = 0;
+    int lim = b.limit();
+    lineNo = 0;
+    
+    for(int i=0; i<lim; i++){
+      if(b.get(i) == '\n'){
+        lineNo++;
+        parseLine(b, start, i);
+        start = i+1;
+      }
+    }
+    lineNo++;
+    if(start < lim) parseLine(b, start, lim);
+  }
+  
+  //splits the file into ranges of roughly chunkSize bytes, each ending right after a newline
+  private static long[] findChunks(FileChannel ch, long chunkSize) throws IOException{
+    long size = ch.size();
+    List<Long> bounds = new ArrayList<>();
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    
+    bounds.add(0L);
+    long pos = chunkSize;
+    while(pos < size){
+      //look for the next newline
+      boolean found = false;
+      while(!found && pos < size){
+        probe.clear();
+        int n = ch.read(probe, pos);
+        if(n <= 0) break;
+        for(int i=0; i<n; i++){
+          if(probe.get(i) == '\n'){
+            pos += i+1;
+            found = true;
+            break;
+          }
+        }
+        if(!found) pos += n;
+      }
+      if(pos >= size) break;
+      
+      bounds.add(pos);
+      pos += chunkSize;
+    }
+    bounds.add(size);
+    
+    long[] b = new long[bounds.size()];
+    for(int i=0; i<b.length; i++) b[i] = bounds.get(i);
+    return b;
+  }
+  
+  private static ObjParser stitch(final ObjParser[] chunks){
+    final int n = chunks.length;
+    if(n == 1) return chunks[0];
+    
+    //prefix sums: where each chunk starts in the merged arrays
+    final int[] pOff = new int[n+1];
+    final int[] nOff = new int[n+1];
+    final int[] tOff = new int[n+1];
+    final int[] cOff = new int[n+1];
+    for(int i=0; i<n; i++){
+      pOff[i+1] = pOff[i] + chunks[i].positions.size();
+      nOff[i+1] = nOff[i] + chunks[i].normals.size();
+      tOff[i+1] = tOff[i] + chunks[i].texCoords.size();
+      cOff[i+1] = cOff[i] + chunks[i].corners.size();
+    }
+    
+    final ObjParser res = new ObjParser();
+    res.positions.resize(pOff[n]);
+    res.normals.resize(nOff[n]);
+    res.texCoords.resize(tOff[n]);
+    res.corners.resize(cOff[n]);
+    
+    List<RecursiveAction> tasks = new ArrayList<>();
+    for(int i=0; i<n; i++){
+      final int c = i;
+      tasks.add(new RecursiveAction(){
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected void compute(){
+          ObjParser p = chunks[c];
+          System.arraycopy(p.positions.array(), 0, res.positions.array(), pOff[c], p.positions.size());
+          System.arraycopy(p.normals.array(), 0, res.normals.array(), nOff[c], p.normals.size());
+          System.arraycopy(p.texCoords.array(), 0, res.texCoords.array(), tOff[c], p.texCoords.size());
+          System.arraycopy(p.corners.array(), 0, res.corners.array(), cOff[c], p.corners.size());
+          
+          //relative indices were resolved against the chunk, shift them by everything in front of it
+          int[] dst = res.corners.array();
+          for(int k=0; k<p.relative.size(); k++){
+            int slot = p.relative.get(k);
+            int base;
+            switch(slot%3){
+            case 0:  base = pOff[c]/3; break;
+            case 1:  base = tOff[c]/2; break;
+            default: base = nOff[c]/3; break;
+            }
+            dst[cOff[c]+slot] += base;
+          }
+        }
+      });
+    }
+    runAll(tasks);
+    
+    return res;
+  }
+  
+  private static void runAll(final List<RecursiveAction> tasks){
+    ForkJoinPool.commonPool().invoke(new RecursiveAction(){
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected void compute(){
+        invokeAll(tasks);
+      }
+    });
+  }
+
+  void parseLine(ByteBuffer b, int start, int end) throws IOException{
+    pos = start;
+    skipSpaces(b, end);
+    if(pos >= end) return;
+
+    byte c = b.get(pos);
+    byte c1 = pos+1 < end ? b.get(pos+1) : (byte)'\n';
+
+    if(c == 'v'){
+      if(isSpace(c1)){
+        pos += 1;
+        positions.add(parseFloat(b, end), parseFloat(b, end), parseFloat(b, end));
+      }else if(c1 == 'n' && pos+2 < end && isSpace(b.get(pos+2))){
+        pos += 2;
+        normals.add(parseFloat(b, end), parseFloat(b, end), parseFloat(b, end));
+      }else if(c1 == 't' && pos+2 < end && isSpace(b.get(pos+2))){
+        pos += 2;
+        //an optional third (w) coordinate is ignored
+        texCoords.add(parseFloat(b, end), parseFloat(b, end));
+      }
+    }else if(c == 'f' && isSpace(c1)){
+      pos += 1;
+      parseFace(b, end);
+    }
+  }
+
+  private void parseFace(ByteBuffer b, int end) throws IOException{
+    int n = 0;
+    int vp, vt, vn, m;
+    int raw;
+
+    skipSpaces(b, end);
+    while(pos < end){
+      raw = parseInt(b, end);
+      vp = resolve(raw, getVertexCount());
+      m = raw < 0 ? 1 : 0;
+      vt = -1;
+      vn = -1;
+
+      if(pos < end && b.get(pos) == '/'){
+        pos++;
+        if(pos < end && b.get(pos) != '/'){
+          raw = parseInt(b, end);
+          vt = resolve(raw, getTexCoordCount());
+          if(raw < 0) m |= 2;
+        }
+        if(pos < end && b.get(pos) == '/'){
+          pos++;
+          raw = parseInt(b, end);
+          vn = resolve(raw, getNormalCount());
+          if(raw < 0) m |= 4;
+        }
+      }
+
+      if(n == 0){
+        f0p = vp; f0t = vt; f0n = vn; f0m = m;
+      }else if(n >= 2){
+        addCorner(f0p, f0t, f0n, f0m);
+        addCorner(fpp, fpt, fpn, fpm);
+        addCorner(vp, vt, vn, m);
+      }
+      fpp = vp; fpt = vt; fpn = vn; fpm = m;
+      n++;
+
+      skipSpaces(b, end);
+    }
+
+    if(n < 3) throw error("face with less than 3 corners");
+  }
+  
+  private void addCorner(int vp, int vt, int vn, int relMask){
+    int slot = corners.size();
+    corners.add(vp, vt, vn);
+    
+    if(relMask != 0){
+      if((relMask & 1) != 0) relative.add(slot);
+      if((relMask & 2) != 0) relative.add(slot+1);
+      if((relMask & 4) != 0) relative.add(slot+2);
+    }
+  }
+
+  //obj indices are 1-based, negative ones count backwards from the current end (of this chunk in parallel mode)
+  private int resolve(int idx, int count) throws IOException{
+    if(idx > 0) return idx-1;
+    if(idx < 0) return count+idx;
+    throw error("index 0 is not valid");
+  }
+
+  private int parseInt(ByteBuffer b, int end) throws IOException{
+    boolean neg = false;
+    int v = 0;
+    int digits = 0;
+
+    if(pos < end && (b.get(pos) == '-' || b.get(pos) == '+')){
+      neg = b.get(pos) == '-';
+      pos++;
+    }
+    while(pos < end){
+      int d = b.get(pos) - '0';
+      if(d < 0 || d > 9) break;
+      v = v*10 + d;
+      digits++;
+      pos++;
+    }
+
+    if(digits == 0) throw error("expected an integer");
+    return neg ? -v : v;
+  }
+
+  private float parseFloat(ByteBuffer b, int end) throws IOException{
+    skipSpaces(b, end);
+
+    boolean neg = false;
+    long mant = 0;
+    int exp = 0;
+    int digits = 0;
+
+    if(pos < end && (b.get(pos) == '-' || b.get(pos) == '+')){
+      neg = b.get(pos) == '-';
+      pos++;
+    }
+
+    //integer part. digits beyond what fits in the long only shift the exponent
+    while(pos < end){
+      int d = b.get(pos) - '0';
+      if(d < 0 || d > 9) break;
+      if(mant < 100000000000000000L) mant = mant*10 + d;
+      else exp++;
+      digits++;
+      pos++;
+    }
+
+    if(pos < end && b.get(pos) == '.'){
+      pos++;
+      while(pos < end){
+        int d = b.get(pos) - '0';
+        if(d < 0 || d > 9) break;
+        if(mant < 100000000000000000L){
+          mant = mant*10 + d;
+          exp--;
+        }
+        digits++;
+        pos++;
+      }
+    }
+
+    if(digits == 0) throw error("expected a number");
+
+    if(pos < end && (b.get(pos) == 'e' || b.get(pos) == 'E')){
+      pos++;
+      exp += parseInt(b, end);
+    }
+
+    double v = mant;
+    if(exp < 0){
+      if(exp >= -22) v /= POW10[-exp];
+      else v *= Math.pow(10, exp);
+    }else if(exp > 0){
+      if(exp <= 22) v *= POW10[exp];
+      else v *= Math.pow(10, exp);
+    }
+
+    return (float)(neg ? -v : v);
+  }
+
+  private void skipSpaces(ByteBuffer b, int end){
+    while(pos < end && isSpace(b.get(pos))) pos++;
+  }
+
+  private static boolean isSpace(byte c){
+    return c == ' ' || c == '\t' || c == '\r';
+  }
+
+  private IOException error(String msg){
+    if(chunkStart > 0) return new IOException("malformed obj data in line "+lineNo+" after byte "+chunkStart+": "+msg);
+    return new IOException("malformed obj data in line "+lineNo+": "+msg);
+  }
+}
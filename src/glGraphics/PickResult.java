@@ -0,0 +1,48 @@
+package glGraphics;
+
+/**
+ *
+ * Closest hit of a picking ray (see glGraphics.pick): the construct, the triangle index in lod 0 of its mesh
+ * (see Mesh.decodeTriangles), the barycentric coordinates u, v of the hit point relative to the 2nd and 3rd
+ * corner, and the distance from the camera in world units.
+ *
+ */
+
+import java.util.UUID;
+
+public class PickResult {
+
+  private final UUID construct;
+  private final int triangle;
+  private final float u;
+  private final float v;
+  private final float distance;
+  
+  public PickResult(UUID c, int tri, float u, float v, float dist){
+    construct = c;
+    triangle = tri;
+    this.u = u;
+    this.v = v;
+    distance = dist;
+  }
+  
+  public UUID getConstruct(){
+    return construct;
+  }
+  
+  public int getTriangle(){
+    return triangle;
+  }
+  
+  public float getU(){
+    return u;
+  }
+  
+  public float getV(){
+    return v;
+  }
+  
+  public float getDistance(){
+    return distance;
+  }
+}
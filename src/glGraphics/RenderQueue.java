@@ -0,0 +1,125 @@
+package glGraphics;
+
+/**
+ *
+ * Draw order of one frame. Every draw gets a 64 bit key, and the queue is sorted by it with an lsd radix sort, so
+ * draws with the same state end up next to each other and glGraphics.execute() only binds what changed:
+ *
+ *   bits 51-54  pass (draws of a lower pass come first, whatever their state)
+ *   bit  50     depth write off
+ *
+ * with depth writes, state first and front to back within the same state:
+ *
+ *   bits 40-49  shader
+ *   bits 24-39  texture set (hash of the bound names)
+ *   bits  0-23  quantized view depth
+ *
+ * without, blending needs back to front over all of them, so the inverted depth comes first:
+ *
+ *   bits 26-49  inverted quantized view depth
+ *   bits 16-25  shader
+ *   bits  0-15  texture set
+ *
+ * The sort is stable, so draws with equal keys keep their submission order. Byte digits that are equal for all keys
+ * (e.g. the pass in a frame with only one) are skipped.
+ *
+ */
+
+import java.util.Arrays;
+
+public class RenderQueue {
+
+  private static final int PASS_SHIFT = 51;
+  private static final int DEPTH_WRITE_SHIFT = 50;
+  private static final int SHADER_SHIFT = 40;
+  private static final int TEXTURE_SHIFT = 24;
+  private static final int BLEND_DEPTH_SHIFT = 26;
+  private static final int BLEND_SHADER_SHIFT = 16;
+  private static final int KEY_BYTES = 7;
+
+  public static final int MAX_PASS = 15;
+  private static final int DEPTH_MAX = (1 << 24) - 1;
+
+  private long[] keys, keyTmp;
+  private int[] items, itemTmp;
+  private int size;
+  private int[] count = new int[256];
+
+  public RenderQueue(int capacity){
+    keys = new long[capacity];
+    keyTmp = new long[capacity];
+    items = new int[capacity];
+    itemTmp = new int[capacity];
+  }
+
+  //depth is the view distance, clamped to [0, far]
+  public static long key(int pass, boolean depthWrite, int shader, int textureSet, float depth, float far){
+    int d = (int)(Math.max(0, Math.min(1, depth/far)) * DEPTH_MAX);
+    long key = (long)Math.min(pass, MAX_PASS) << PASS_SHIFT;
+    if(depthWrite){
+      return key
+           | (long)(shader & 0x3FF) << SHADER_SHIFT
+           | (long)(textureSet & 0xFFFF) << TEXTURE_SHIFT
+           | d;
+    }
+    return key
+         | 1L << DEPTH_WRITE_SHIFT
+         | (long)(DEPTH_MAX - d) << BLEND_DEPTH_SHIFT
+         | (long)(shader & 0x3FF) << BLEND_SHADER_SHIFT
+         | (textureSet & 0xFFFF);
+  }
+
+  public void clear(){
+    size = 0;
+  }
+
+  public void add(long key, int item){
+    if(size == keys.length){
+      int n = size*2;
+      keys = Arrays.copyOf(keys, n);
+      keyTmp = new long[n];
+      items = Arrays.copyOf(items, n);
+      itemTmp = new int[n];
+    }
+    keys[size] = key;
+    items[size] = item;
+    size++;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  //item at position i of the sorted order
+  public int get(int i){
+    return items[i];
+  }
+
+  public void sort(){
+    for(int b=0; b<KEY_BYTES; b++){
+      int shift = b*8;
+      Arrays.fill(count, 0);
+      for(int i=0; i<size; i++) count[(int)(keys[i] >>> shift) & 0xFF]++;
+      if(size == 0 || count[(int)(keys[0] >>> shift) & 0xFF] == size) continue;
+
+      int sum = 0;
+      for(int d=0; d<256; d++){
+        int c = count[d];
+        count[d] = sum;
+        sum += c;
+      }
+      for(int i=0; i<size; i++){
+        int p = count[(int)(keys[i] >>> shift) & 0xFF]++;
+        keyTmp[p] = keys[i];
+        itemTmp[p] = items[i];
+      }
+
+      long[] k = keys;
+      keys = keyTmp;
+      keyTmp = k;
+      int[] it = items;
+      items = itemTmp;
+      itemTmp = it;
+    }
+  }
+}
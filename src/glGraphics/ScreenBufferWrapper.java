@@ -10,12 +10,7 @@ package glGraphics;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_STENCIL_BUFFER_BIT;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
-import static org.lwjgl.opengl.GL20.glUseProgram;
-import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
-import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
 import org.lwjgl.opengl.GL11;
@@ -39,24 +34,22 @@ public class ScreenBufferWrapper extends FrameBufferWrapper {
     if(!ready) throw new IllegalStateException("Screenbuffer creation was unsuccessfull! Can't bind");
     
     if(readSlot != -1){
-      glActiveTexture(slotMap.get(readSlot));
-      
       if(readSlot == Ref.fboTargetSlot[0]){
-        glBindTexture(GL32.GL_TEXTURE_2D_MULTISAMPLE, readTexID);
+        GLState.bindTexture(readSlot, GL32.GL_TEXTURE_2D_MULTISAMPLE, readTexID);
       }else{
-        glBindTexture(GL11.GL_TEXTURE_2D, readTexID);
+        GLState.bindActive(readSlot, GL11.GL_TEXTURE_2D, readTexID);
         glGenerateMipmap(GL11.GL_TEXTURE_2D);
       }
       
       if(shader != null){
-            glUseProgram(shader.getShaderID());
+            GLState.useProgram(shader.getShaderID());
             shader.storeUniform("fboTex", readSlot);
       }
     }
     
 
 
-    glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    GLState.bindFramebuffer(0);
     if(clear) glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
     
   }
@@ -17,6 +17,7 @@ package glGraphics;
  * 
  * sampler1D
  * sampler2D
+ * sampler2DArray
  * samplerCube
  * int
  * float
@@ -140,6 +141,10 @@ public class ShaderWrapper {
     storeUniform("M", new Matrix4f());
     storeUniform("V", new Matrix4f());
     storeUniform("P", new Matrix4f());
+    
+    //identity dequantization, for everything not drawn as a compact mesh
+    storeUniform("posScale", new Vector3f(1,1,1));
+    storeUniform("posBias", new Vector3f(0,0,0));
   }
   
   @SuppressWarnings("unchecked")
@@ -148,8 +153,12 @@ public class ShaderWrapper {
   }
   
   public void storeUniform(String name, Object value){
-    glUseProgram(shaderID);
-    
+    GLState.useProgram(shaderID);
+    storeBound(name, value);
+  }
+  
+  //like storeUniform, for when this shader is already in use (see glGraphics.execute)
+  void storeBound(String name, Object value){
     if(uniformType.containsKey(name)){
       int type = uniformType.get(name);
       int handle = uniformHandle.get(name);
@@ -201,6 +210,7 @@ public class ShaderWrapper {
     if(varType.equals ("sampler1D"))       return 0;
     if(varType.equals ("sampler2D"))      return 0;
     if(varType.equals ("sampler2DMS"))     return 0;
+    if(varType.equals ("sampler2DArray"))  return 0;
     if(varType.equals ("samplerCube"))     return 0;
     if(varType.equals ("int"))         return 0;
     if(varType.matches("int\\[.+\\]"))    return 1; //regex, must contain 1 or more chars
@@ -348,6 +358,6 @@ public class ShaderWrapper {
   }
   
   public void releaseShader(){
-    glDeleteProgram(shaderID);
+    GLState.deleteProgram(shaderID);
   }
 }
@@ -9,6 +9,8 @@ public abstract class Texture {
   protected int type;
   protected int texID;
   protected Vector2i dimension;
+  //bytes of all levels and faces on the gpu
+  protected long byteSize;
   
   public int getID(){
     return texID;
@@ -21,4 +23,19 @@ public abstract class Texture {
   public int getType(){
     return type;
   }
+  
+  public long getByteSize(){
+    return byteSize;
+  }
+  
+  public void release(){
+    GLState.deleteTexture(texID);
+    texID = 0;
+  }
+  
+  //frees the gpu memory but keeps the object, so it can be loaded again (see TextureResidency)
+  void evict(){
+    GLState.deleteTexture(texID);
+    texID = 0;
+  }
 }
@@ -8,57 +8,63 @@ import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
 import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glGenTextures;
 import static org.lwjgl.opengl.GL11.glPixelStorei;
 import static org.lwjgl.opengl.GL11.glTexParameteri;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.GL11;
 
 import util.Vector2i;
-import extern.PNGDecoder;
 
 public class Texture1D extends Texture{
 
+  //takes the image from TextureLoader, prefetched if it was. only the first row is used
   public Texture1D(String fn){
-    FileInputStream fis;
+    type = GL11.GL_TEXTURE_1D;
+    load(fn);
+  }
+  
+  //base level first, only the first row of each is used. mips are generated if there is only the base level
+  public Texture1D(TextureLoader.Image... levels){
+    type = GL11.GL_TEXTURE_1D;
+    upload(levels);
+  }
+  
+  //also loads an evicted texture again (see TextureResidency)
+  void load(String fn){
     try {
-      type = GL11.GL_TEXTURE_1D;
-      
-      fis = new FileInputStream(fn);
-      PNGDecoder peng = new PNGDecoder(fis);
-      
-      dimension = new Vector2i(peng.getWidth(), peng.getHeight());
-
-      ByteBuffer beebee = ByteBuffer.allocateDirect(4 * peng.getWidth());
-      peng.decode(beebee, peng.getWidth() * 4, PNGDecoder.Format.RGBA);
-      beebee.flip();
-      fis.close();
-      
-      texID = glGenTextures();
-      glActiveTexture(GL_TEXTURE0);
-      glBindTexture(GL11.GL_TEXTURE_1D, texID);
-      glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
-      GL11.glTexImage1D(GL11.GL_TEXTURE_1D, 0, GL_RGBA, peng.getWidth(), 0, GL_RGBA, GL_UNSIGNED_BYTE, beebee);
-      glGenerateMipmap(GL11.GL_TEXTURE_1D);
-
-      glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-      glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-      glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-      //glTexParameteri(GL11.GL_TEXTURE_1D, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, 0);
+      upload(TextureLoader.decodeMips1D(fn));
     } catch (IOException e) {
       // TODO Auto-generated catch block
       e.printStackTrace();
     }
+  }
+  
+  private void upload(TextureLoader.Image[] levels){
+    dimension = new Vector2i(levels[0].width, levels[0].height);
+    byteSize = 4L * levels[0].width * 2;
     
+    texID = glGenTextures();
+    GLState.bindActive(0, GL11.GL_TEXTURE_1D, texID);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    for(int l=0; l<levels.length; l++){
+      GL11.glTexImage1D(GL11.GL_TEXTURE_1D, l, GL_RGBA, levels[l].width, 0, GL_RGBA, GL_UNSIGNED_BYTE, levels[l].pixels);
+    }
+    if(levels.length == 1){
+      glGenerateMipmap(GL11.GL_TEXTURE_1D);
+    }else{
+      glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_MAX_LEVEL, levels.length-1);
+    }
+
+    glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+    glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+    glTexParameteri(GL11.GL_TEXTURE_1D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    //glTexParameteri(GL11.GL_TEXTURE_1D, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, 0);
   }
   
 }
@@ -5,59 +5,111 @@ import static org.lwjgl.opengl.GL11.GL_LINEAR_MIPMAP_LINEAR;
 import static org.lwjgl.opengl.GL11.GL_RGBA;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
 import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glGenTextures;
 import static org.lwjgl.opengl.GL11.glPixelStorei;
 import static org.lwjgl.opengl.GL11.glTexImage2D;
 import static org.lwjgl.opengl.GL11.glTexParameteri;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.GL11;
 
 import util.Ref;
 import util.Vector2i;
-import extern.PNGDecoder;
 
 public class Texture2D extends Texture{
 
+  //takes the image from TextureLoader, prefetched if it was. block compressed if enabled and supported.
+  //.dds and .ktx2 files are uploaded as they are (see TextureContainer)
   public Texture2D(String fn){
-    FileInputStream fis;
+    type = GL11.GL_TEXTURE_2D;
+    load(fn);
+  }
+  
+  //base level first. mips are generated if there is only the base level
+  public Texture2D(TextureLoader.Image... levels){
+    type = GL11.GL_TEXTURE_2D;
+    upload(levels);
+  }
+  
+  public Texture2D(TextureCache.Compressed c){
+    type = GL11.GL_TEXTURE_2D;
+    upload(c);
+  }
+  
+  //also loads an evicted texture again (see TextureResidency)
+  void load(String fn){
     try {
-      type = GL11.GL_TEXTURE_2D;
-      
-      fis = new FileInputStream(fn);
-      PNGDecoder peng = new PNGDecoder(fis);
-      
-      dimension = new Vector2i(peng.getWidth(), peng.getHeight());
-      
-      ByteBuffer beebee = ByteBuffer.allocateDirect(4 * peng.getWidth() * peng.getHeight());
-      peng.decode(beebee, peng.getWidth() * 4, PNGDecoder.Format.RGBA);
-      beebee.flip();
-      fis.close();
-      
-      texID = glGenTextures();
-      glActiveTexture(GL_TEXTURE0);
-      glBindTexture(GL11.GL_TEXTURE_2D, texID);
-      glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
-      glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL_RGBA, peng.getWidth(), peng.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE, beebee);
-      glGenerateMipmap(GL11.GL_TEXTURE_2D);
-
-      glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-      glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-      glTexParameteri(GL11.GL_TEXTURE_2D, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Ref.aniso);
+      if(TextureContainer.isContainer(fn)){
+        upload(TextureContainer.load(fn));
+      }else if(Ref.compressTextures && BCEncoder.supported(Ref.textureFormat)){
+        upload(TextureLoader.compressed(fn, Ref.textureFormat));
+      }else{
+        upload(TextureLoader.decodeMips(fn));
+      }
     } catch (IOException e) {
       // TODO Auto-generated catch block
       e.printStackTrace();
     }
+  }
+  
+  //the levels come from TextureLoader, built on its workers
+  private void upload(TextureLoader.Image[] levels){
+    dimension = new Vector2i(levels[0].width, levels[0].height);
+    //a full mip chain adds a third
+    byteSize = 4L * levels[0].width * levels[0].height * 4 / 3;
     
+    texID = glGenTextures();
+    GLState.bindActive(0, GL11.GL_TEXTURE_2D, texID);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    for(int l=0; l<levels.length; l++){
+      glTexImage2D(GL11.GL_TEXTURE_2D, l, GL_RGBA, levels[l].width, levels[l].height, 0, GL_RGBA, GL_UNSIGNED_BYTE, levels[l].pixels);
+    }
+    if(levels.length == 1){
+      glGenerateMipmap(GL11.GL_TEXTURE_2D);
+    }else{
+      glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels.length-1);
+    }
+
+    setFilters();
+  }
+  
+  //the whole stored mip chain, nothing is generated on the gpu
+  private void upload(TextureCache.Compressed c){
+    dimension = new Vector2i(c.widths[0], c.heights[0]);
+    byteSize = c.getByteSize();
+    
+    texID = glGenTextures();
+    GLState.bindActive(0, GL11.GL_TEXTURE_2D, texID);
+    for(int l=0; l<c.levels.length; l++){
+      glCompressedTexImage2D(GL11.GL_TEXTURE_2D, l, c.glFormat, c.widths[l], c.heights[l], 0, c.levels[l]);
+    }
+    glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, c.levels.length-1);
+    
+    setFilters();
+  }
+  
+  //levels as stored in the file
+  private void upload(TextureContainer c){
+    dimension = new Vector2i(c.width, c.height);
+    byteSize = c.getByteSize();
+    
+    texID = glGenTextures();
+    GLState.bindActive(0, GL11.GL_TEXTURE_2D, texID);
+    c.upload(GL11.GL_TEXTURE_2D);
+    
+    setFilters();
+  }
+  
+  private void setFilters(){
+    glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+    glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    glTexParameteri(GL11.GL_TEXTURE_2D, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Ref.aniso);
   }
   
 }
@@ -0,0 +1,114 @@
+package glGraphics;
+
+/**
+ *
+ * Several images of the same size in the layers of one GL_TEXTURE_2D_ARRAY. Constructs whose materials live in the same
+ * array bind the same texture, so execute() doesn't rebind anything between them; the shader picks the image with a
+ * layer uniform (see glGraphics.drawConstruct with a layer, sampler2DArray in the shader).
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_LINEAR_MIPMAP_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glGenTextures;
+import static org.lwjgl.opengl.GL11.glPixelStorei;
+import static org.lwjgl.opengl.GL11.glTexParameteri;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL12.glTexSubImage3D;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.lwjgl.opengl.GL30;
+
+import util.Ref;
+import util.Vector2i;
+
+public class TextureArray extends Texture{
+
+  private HashMap<String, Integer> layers;
+  private int layerCount;
+
+  //one layer per file, in the given order. all images are decoded in parallel by TextureLoader.
+  //a single .dds or .ktx2 file brings all its layers, in the order they are stored (see TextureContainer)
+  public TextureArray(String... fns) throws IOException{
+    type = GL30.GL_TEXTURE_2D_ARRAY;
+    layers = new HashMap<>();
+    if(fns.length == 1 && TextureContainer.isContainer(fns[0])){
+      upload(TextureContainer.load(fns[0]));
+      layers.put(fns[0], 0);
+      return;
+    }
+    TextureLoader.prefetch(fns);
+    TextureLoader.Image[] imgs = new TextureLoader.Image[fns.length];
+    for(int i=0; i<fns.length; i++){
+      imgs[i] = TextureLoader.decode(fns[i]);
+      layers.put(fns[i], i);
+    }
+    upload(imgs);
+  }
+
+  public TextureArray(TextureLoader.Image[] imgs){
+    type = GL30.GL_TEXTURE_2D_ARRAY;
+    layers = new HashMap<>();
+    upload(imgs);
+  }
+
+  //the layer of a file passed to the constructor, -1 if it isn't in this array
+  public int getLayer(String fn){
+    Integer l = layers.get(fn);
+    return l == null ? -1 : l;
+  }
+
+  public int getLayerCount(){
+    return layerCount;
+  }
+
+  private void upload(TextureContainer c){
+    dimension = new Vector2i(c.width, c.height);
+    layerCount = c.layers;
+    byteSize = c.getByteSize();
+
+    texID = glGenTextures();
+    GLState.bindActive(0, GL30.GL_TEXTURE_2D_ARRAY, texID);
+    c.upload(GL30.GL_TEXTURE_2D_ARRAY);
+    setFilters();
+  }
+
+  private void upload(TextureLoader.Image[] imgs){
+    if(imgs.length == 0) throw new IllegalArgumentException("texture array needs at least one image");
+    int w = imgs[0].width, h = imgs[0].height;
+    for(TextureLoader.Image img : imgs){
+      if(img.width != w || img.height != h){
+        throw new IllegalArgumentException("texture array layers differ in size: "+img.width+"x"+img.height+" vs "+w+"x"+h);
+      }
+    }
+    dimension = new Vector2i(w, h);
+    layerCount = imgs.length;
+    byteSize = 4L * w * h * layerCount * 4 / 3;
+
+    texID = glGenTextures();
+    GLState.bindActive(0, GL30.GL_TEXTURE_2D_ARRAY, texID);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, GL_RGBA8, w, h, layerCount, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer)null);
+    for(int i=0; i<layerCount; i++){
+      glTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, 0, 0, i, w, h, 1, GL_RGBA, GL_UNSIGNED_BYTE, imgs[i].pixels);
+    }
+    glGenerateMipmap(GL30.GL_TEXTURE_2D_ARRAY);
+    setFilters();
+  }
+
+  private void setFilters(){
+    glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+    glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Ref.aniso);
+  }
+}
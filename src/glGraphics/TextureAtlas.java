@@ -0,0 +1,145 @@
+package glGraphics;
+
+/**
+ *
+ * Packs small images of any size into one 2D texture. Each image gets a region, stored as offset (x, y) and scale (z, w)
+ * in texture coordinates, so the shader remaps its uv with uv*region.zw + region.xy (see glGraphics.drawConstruct with a
+ * region). Wrapping has to be done in the shader with fract(uv) before the remap.
+ *
+ * Images are placed on shelves, tallest first. Every image is surrounded by a gutter of GUTTER pixels repeating its
+ * border, and the mip chain stops at the level where the gutter shrinks to one pixel, so filtering never mixes
+ * neighbours. Padded sizes and positions are multiples of 1 << MAX_LEVEL, so no texel of the last level straddles
+ * two images.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_LINEAR_MIPMAP_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glGenTextures;
+import static org.lwjgl.opengl.GL11.glPixelStorei;
+import static org.lwjgl.opengl.GL11.glTexImage2D;
+import static org.lwjgl.opengl.GL11.glTexParameteri;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Vector4f;
+
+import util.Ref;
+import util.Vector2i;
+
+public class TextureAtlas extends Texture{
+
+  private static final int GUTTER = 4;
+  //levels until the gutter is down to one pixel
+  private static final int MAX_LEVEL = 2;
+
+  private HashMap<String, Vector4f> regions;
+
+  //size is the width and height of the atlas in pixels
+  public TextureAtlas(int size, String... fns) throws IOException{
+    type = GL11.GL_TEXTURE_2D;
+    regions = new HashMap<>();
+    TextureLoader.prefetch(fns);
+    TextureLoader.Image[] imgs = new TextureLoader.Image[fns.length];
+    for(int i=0; i<fns.length; i++) imgs[i] = TextureLoader.decode(fns[i]);
+    Vector4f[] r = upload(size, imgs);
+    for(int i=0; i<fns.length; i++) regions.put(fns[i], r[i]);
+  }
+
+  //offset and scale of a file passed to the constructor, null if it isn't in this atlas
+  public Vector4f getRegion(String fn){
+    Vector4f r = regions.get(fn);
+    return r == null ? null : new Vector4f(r);
+  }
+
+  private Vector4f[] upload(int size, TextureLoader.Image[] imgs){
+    int[] w = new int[imgs.length];
+    int[] h = new int[imgs.length];
+    for(int i=0; i<imgs.length; i++){
+      w[i] = imgs[i].width;
+      h[i] = imgs[i].height;
+    }
+    int[] pos = pack(size, w, h, GUTTER, 1 << MAX_LEVEL);
+    if(pos == null) throw new IllegalArgumentException(imgs.length+" images don't fit into a "+size+"x"+size+" atlas");
+
+    ByteBuffer pixels = ByteBuffer.allocateDirect(4 * size * size);
+    Vector4f[] regions = new Vector4f[imgs.length];
+    for(int i=0; i<imgs.length; i++){
+      blit(imgs[i], pixels, size, pos[i*2], pos[i*2+1]);
+      regions[i] = new Vector4f((float)pos[i*2]/size, (float)pos[i*2+1]/size, (float)w[i]/size, (float)h[i]/size);
+    }
+
+    dimension = new Vector2i(size, size);
+    byteSize = 4L * size * size * 4 / 3;
+
+    texID = glGenTextures();
+    GLState.bindActive(0, GL11.GL_TEXTURE_2D, texID);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL_RGBA, size, size, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+    glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, MAX_LEVEL);
+    glGenerateMipmap(GL11.GL_TEXTURE_2D);
+
+    glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+    glTexParameteri(GL11.GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    glTexParameteri(GL11.GL_TEXTURE_2D, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Ref.aniso);
+    return regions;
+  }
+
+  /*
+   * shelf packing into a size x size square, with gutter pixels around every rectangle. padded rectangles are
+   * rounded up to a multiple of align (a power of two), so they all start on one. returns x and y of each
+   * rectangle's inner corner, or null if they don't fit
+   */
+  static int[] pack(int size, final int[] w, final int[] h, int gutter, int align){
+    Integer[] order = new Integer[w.length];
+    for(int i=0; i<order.length; i++) order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>(){
+      @Override
+      public int compare(Integer a, Integer b){
+        return h[b] != h[a] ? h[b] - h[a] : w[b] - w[a];
+      }
+    });
+
+    int[] pos = new int[w.length*2];
+    int x = 0, y = 0, shelf = 0;
+    for(int i : order){
+      int pw = (w[i] + 2*gutter + align-1) & -align;
+      int ph = (h[i] + 2*gutter + align-1) & -align;
+      if(x + pw > size){
+        //next shelf
+        y += shelf;
+        x = 0;
+        shelf = 0;
+      }
+      if(pw > size || y + ph > size) return null;
+      pos[i*2] = x + gutter;
+      pos[i*2+1] = y + gutter;
+      x += pw;
+      shelf = Math.max(shelf, ph);
+    }
+    return pos;
+  }
+
+  //copies img to (x0, y0) of the atlas and repeats its border into the gutter
+  private static void blit(TextureLoader.Image img, ByteBuffer atlas, int size, int x0, int y0){
+    for(int y=-GUTTER; y<img.height+GUTTER; y++){
+      int sy = Math.max(0, Math.min(img.height-1, y));
+      for(int x=-GUTTER; x<img.width+GUTTER; x++){
+        int sx = Math.max(0, Math.min(img.width-1, x));
+        atlas.putInt(((y0+y)*size + x0+x)*4, img.pixels.getInt((sy*img.width + sx)*4));
+      }
+    }
+  }
+}
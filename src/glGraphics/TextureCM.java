@@ -7,62 +7,93 @@ import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
 import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glGenTextures;
 import static org.lwjgl.opengl.GL11.glPixelStorei;
 import static org.lwjgl.opengl.GL11.glTexImage2D;
 import static org.lwjgl.opengl.GL11.glTexParameteri;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.GL13;
 
 import util.Ref;
 import util.Vector2i;
-import extern.PNGDecoder;
 
 public class TextureCM extends Texture{
 
+  //faces are fn0.png to fn5.png, decoded in parallel by TextureLoader, or all in one .dds or .ktx2 file (see TextureContainer)
   public TextureCM(String fn){
-    FileInputStream fis;
+    type = GL13.GL_TEXTURE_CUBE_MAP;
+    load(fn);
+  }
+  
+  //mips are generated
+  public TextureCM(TextureLoader.Image[] faces){
+    type = GL13.GL_TEXTURE_CUBE_MAP;
+    TextureLoader.Image[][] levels = new TextureLoader.Image[faces.length][];
+    for(int i=0; i<faces.length; i++) levels[i] = new TextureLoader.Image[]{faces[i]};
+    upload(levels);
+  }
+  
+  //the mip chain of each face, base level first
+  public TextureCM(TextureLoader.Image[][] faces){
+    type = GL13.GL_TEXTURE_CUBE_MAP;
+    upload(faces);
+  }
+  
+  //also loads an evicted texture again (see TextureResidency)
+  void load(String fn){
     try {
-      type = GL13.GL_TEXTURE_CUBE_MAP;
-
-      ByteBuffer[] faces = new ByteBuffer[6];
-      
-      for(int i=0; i<6;i++){
-        fis = new FileInputStream(fn+i+".png");
-        PNGDecoder peng = new PNGDecoder(fis);
-        dimension = new Vector2i(peng.getWidth(), peng.getHeight());
-        
-        faces[i] = ByteBuffer.allocateDirect(4 * peng.getWidth() * peng.getHeight());
-        peng.decode(faces[i], peng.getWidth() * 4, PNGDecoder.Format.RGBA);
-        faces[i].flip();
-        fis.close();
-      }
-
-      texID = glGenTextures();
-      glActiveTexture(GL_TEXTURE0);
-      glBindTexture(GL13.GL_TEXTURE_CUBE_MAP, texID);
-      glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
-      
-      for(int i=0; i<6; i++){
-        glTexImage2D(GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X+i, 0, GL_RGBA, dimension.x, dimension.y, 0, GL_RGBA, GL_UNSIGNED_BYTE, faces[i]);
+      if(TextureContainer.isContainer(fn)){
+        upload(TextureContainer.load(fn));
+      }else{
+        upload(TextureLoader.decodeCube(fn));
       }
-      glGenerateMipmap(GL13.GL_TEXTURE_CUBE_MAP);
-      glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-      glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-      glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Ref.aniso);
     } catch (IOException e) {
       // TODO Auto-generated catch block
       e.printStackTrace();
     }
+  }
+  
+  //the levels come from TextureLoader, built on its workers
+  private void upload(TextureLoader.Image[][] faces){
+    dimension = new Vector2i(faces[0][0].width, faces[0][0].height);
+
+    texID = glGenTextures();
+    GLState.bindActive(0, GL13.GL_TEXTURE_CUBE_MAP, texID);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    
+    int levels = faces[0].length;
+    for(int i=0; i<6; i++){
+      for(int l=0; l<levels; l++){
+        glTexImage2D(GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X+i, l, GL_RGBA, faces[i][l].width, faces[i][l].height, 0, GL_RGBA, GL_UNSIGNED_BYTE, faces[i][l].pixels);
+      }
+    }
+    if(levels == 1){
+      glGenerateMipmap(GL13.GL_TEXTURE_CUBE_MAP);
+    }else{
+      glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MAX_LEVEL, levels-1);
+    }
+    byteSize = 6 * 4L * dimension.x * dimension.y * 4 / 3;
+    setParameters();
+  }
+  
+  private void upload(TextureContainer c){
+    dimension = new Vector2i(c.width, c.height);
+    byteSize = c.getByteSize();
     
+    texID = glGenTextures();
+    GLState.bindActive(0, GL13.GL_TEXTURE_CUBE_MAP, texID);
+    c.upload(GL13.GL_TEXTURE_CUBE_MAP);
+    setParameters();
+  }
+  
+  private void setParameters(){
+    glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+    glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    glTexParameteri(GL13.GL_TEXTURE_CUBE_MAP, org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, Ref.aniso);
   }
   
 }
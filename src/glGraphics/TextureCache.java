@@ -0,0 +1,176 @@
+package glGraphics;
+
+/**
+ *
+ * Binary on-disk cache of block compressed textures with their full mip chain, so images only have to be
+ * decoded, filtered and compressed once (see MipGenerator, BCEncoder). Each source file and requested format
+ * gets one cache file in Ref.textureCacheDir with the following layout:
+ *
+ *   int   magic ("STEX")
+ *   int   version
+ *   int   block format (BCEncoder.BC1, ...)
+ *   int   gl internal format
+ *   long  source modification time
+ *   long  source size
+ *   long  source hash
+ *   int   level count
+ *   int   mip filter (Ref.mipFilter, plus 256 with Ref.mipGammaCorrect)
+ *   per level: int width, int height, long block offset, long block size
+ *   ...   level blocks (each 16 byte aligned)
+ *
+ * On read, the file is memory mapped and the levels are sliced out of the mapping, ready for
+ * glCompressedTexImage2D. Validation against the source works like in MeshCache, the file handling is done by
+ * CacheFile.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import util.Ref;
+import util.SimpleLogger;
+
+public class TextureCache {
+
+  public static class Compressed {
+    public final int format;
+    public final int glFormat;
+    public final int[] widths;
+    public final int[] heights;
+    //block data per mip level, base level first
+    public final ByteBuffer[] levels;
+
+    public Compressed(int f, int[] w, int[] h, ByteBuffer[] l){
+      format = f;
+      glFormat = BCEncoder.glFormat(f);
+      widths = w;
+      heights = h;
+      levels = l;
+    }
+
+    public long getByteSize(){
+      long s = 0;
+      for(ByteBuffer b : levels) s += b.remaining();
+      return s;
+    }
+  }
+
+  private static final int MAGIC = 0x58455453; //"STEX" in little endian
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 48;
+
+  public static File cacheFile(File src, int format){
+    return CacheFile.of(Ref.textureCacheDir, src, ".bc"+format+".stex");
+  }
+
+  //the cached texture, built and written first if there is no valid cache entry
+  public static Compressed load(String fn, int format) throws IOException{
+    File src = new File(fn);
+    Compressed c = read(src, format);
+    if(c != null) return c;
+
+    long t0 = System.nanoTime();
+    c = build(TextureLoader.decodePNG(fn), format);
+    SimpleLogger.log("compressed "+fn+" to BC"+c.format+" in "+(System.nanoTime()-t0)/1000000+"ms", 10, TextureCache.class, "load");
+    try{
+      write(src, format, c);
+    }catch(IOException e){
+      SimpleLogger.log("Warning: can't write texture cache for "+fn+": "+e, 0, TextureCache.class, "load");
+    }
+    return c;
+  }
+
+  public static Compressed build(TextureLoader.Image img, int format){
+    format = BCEncoder.resolve(format, img);
+    TextureLoader.Image[] chain = MipGenerator.chain(img);
+    int[] w = new int[chain.length];
+    int[] h = new int[chain.length];
+    ByteBuffer[] levels = new ByteBuffer[chain.length];
+    for(int l=0; l<chain.length; l++){
+      w[l] = chain[l].width;
+      h[l] = chain[l].height;
+      levels[l] = BCEncoder.encode(chain[l], format);
+    }
+    return new Compressed(format, w, h, levels);
+  }
+
+  //returns null if there is no valid cache entry for src
+  public static Compressed read(File src, int format) throws IOException{
+    File cf = cacheFile(src, format);
+
+    try{
+      MappedByteBuffer map = CacheFile.map(cf, HEADER_SIZE);
+      if(map == null) return null;
+
+      if(map.getInt() != MAGIC) return null;
+      if(map.getInt() != VERSION) return null;
+      int fmt = map.getInt();
+      if(map.getInt() != BCEncoder.glFormat(fmt)) return null;
+      if(!CacheFile.checkStamp(cf, map, src)) return null;
+
+      int count = map.getInt();
+      if(map.getInt() != mipSettings()) return null;
+      int[] w = new int[count];
+      int[] h = new int[count];
+      ByteBuffer[] levels = new ByteBuffer[count];
+      for(int l=0; l<count; l++){
+        w[l] = map.getInt();
+        h[l] = map.getInt();
+        long off = map.getLong();
+        long len = map.getLong();
+        if(off + len > map.capacity() || len != BCEncoder.compressedSize(fmt, w[l], h[l])) return null;
+        levels[l] = CacheFile.slice(map, off, len);
+      }
+      map.load();
+
+      return new Compressed(fmt, w, h, levels);
+    }catch(IOException | RuntimeException e){
+      SimpleLogger.log("Warning: broken texture cache "+cf+": "+e, 0, TextureCache.class, "read");
+      return null;
+    }
+  }
+
+  public static void write(File src, int format, Compressed c) throws IOException{
+    int count = c.levels.length;
+    long[] off = new long[count];
+    long pos = CacheFile.align(HEADER_SIZE + count*24);
+    for(int l=0; l<count; l++){
+      off[l] = pos;
+      pos = CacheFile.align(pos + c.levels[l].remaining());
+    }
+
+    ByteBuffer head = ByteBuffer.allocate((int)off[0]).order(ByteOrder.LITTLE_ENDIAN);
+    head.putInt(MAGIC);
+    head.putInt(VERSION);
+    head.putInt(c.format);
+    head.putInt(c.glFormat);
+    CacheFile.putStamp(head, src);
+    head.putInt(count);
+    head.putInt(mipSettings());
+    for(int l=0; l<count; l++){
+      head.putInt(c.widths[l]);
+      head.putInt(c.heights[l]);
+      head.putLong(off[l]);
+      head.putLong(c.levels[l].remaining());
+    }
+    head.position(0);
+    head.limit(head.capacity());
+
+    ByteBuffer[] blocks = new ByteBuffer[count+1];
+    long[] offsets = new long[count+1];
+    blocks[0] = head;
+    for(int l=0; l<count; l++){
+      blocks[l+1] = c.levels[l];
+      offsets[l+1] = off[l];
+    }
+    CacheFile.write(cacheFile(src, format), blocks, offsets);
+  }
+
+  //levels built with other settings are rebuilt
+  private static int mipSettings(){
+    return Ref.mipFilter | (Ref.mipGammaCorrect ? 256 : 0);
+  }
+}
@@ -0,0 +1,378 @@
+package glGraphics;
+
+/**
+ *
+ * Pre-built textures in DDS or KTX2 files. The file is memory mapped and every image (mip level, cube face, array
+ * layer) is a slice of the mapping, so loading is parsing the header and handing the slices to glTexImage. There is
+ * no decode step; mips, block compression and faces come from the tool that wrote the file.
+ *
+ * Supported are 2d textures, cube maps and 2d arrays in these formats:
+ *
+ *   RGBA8, BGRA8      plain and sRGB
+ *   BC1, BC2, BC3     plain and sRGB (DXT1, DXT3, DXT5)
+ *   BC4, BC5          unsigned
+ *   BC7               plain and sRGB
+ *
+ * DDS files may use the legacy header (DXT1/3/5, ATI1/2, BC4U/BC5U, 32 bit RGB masks) or the DX10 extension.
+ * KTX2 files must not be supercompressed. Files with a single level of an uncompressed format get their mips
+ * generated on upload.
+ *
+ * Texture2D, TextureCM and TextureArray take such a file wherever they take a file name (see isContainer).
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glPixelStorei;
+import static org.lwjgl.opengl.GL11.glTexImage2D;
+import static org.lwjgl.opengl.GL11.glTexParameteri;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage3D;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.lwjgl.opengl.ARBTextureCompressionBPTC;
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+import org.lwjgl.opengl.EXTTextureSRGB;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+
+public class TextureContainer {
+
+  private static class Format{
+    private final int internal;
+    //of uncompressed formats, for glTexImage
+    private final int format;
+    //bytes per 4x4 block, 0 for uncompressed formats (4 bytes per pixel)
+    private final int blockBytes;
+
+    public Format(int i, int f, int b){
+      internal = i;
+      format = f;
+      blockBytes = b;
+    }
+  }
+
+  private static final Format RGBA8 = new Format(GL_RGBA8, GL_RGBA, 0);
+  private static final Format SRGB8_ALPHA8 = new Format(GL21.GL_SRGB8_ALPHA8, GL_RGBA, 0);
+  private static final Format BGRA8 = new Format(GL_RGBA8, GL_BGRA, 0);
+  private static final Format SBGR8_ALPHA8 = new Format(GL21.GL_SRGB8_ALPHA8, GL_BGRA, 0);
+  private static final Format BC1_RGB = new Format(EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 0, 8);
+  private static final Format BC1_SRGB_RGB = new Format(EXTTextureSRGB.GL_COMPRESSED_SRGB_S3TC_DXT1_EXT, 0, 8);
+  private static final Format BC1 = new Format(EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT, 0, 8);
+  private static final Format BC1_SRGB = new Format(EXTTextureSRGB.GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT1_EXT, 0, 8);
+  private static final Format BC2 = new Format(EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT3_EXT, 0, 16);
+  private static final Format BC2_SRGB = new Format(EXTTextureSRGB.GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT3_EXT, 0, 16);
+  private static final Format BC3 = new Format(EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, 0, 16);
+  private static final Format BC3_SRGB = new Format(EXTTextureSRGB.GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT5_EXT, 0, 16);
+  private static final Format BC4 = new Format(GL30.GL_COMPRESSED_RED_RGTC1, 0, 8);
+  private static final Format BC5 = new Format(GL30.GL_COMPRESSED_RG_RGTC2, 0, 16);
+  private static final Format BC7 = new Format(ARBTextureCompressionBPTC.GL_COMPRESSED_RGBA_BPTC_UNORM_ARB, 0, 16);
+  private static final Format BC7_SRGB = new Format(ARBTextureCompressionBPTC.GL_COMPRESSED_SRGB_ALPHA_BPTC_UNORM_ARB, 0, 16);
+
+  private static final int DDS_MAGIC = 0x20534444; //"DDS " in little endian
+  private static final byte[] KTX2_MAGIC = {(byte)0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte)0xBB, '\r', '\n', 0x1A, '\n'};
+
+  public final int width;
+  public final int height;
+  public final int levels;
+  //1 for anything but arrays
+  public final int layers;
+  //6 for cube maps, 1 otherwise
+  public final int faces;
+
+  private final Format format;
+  private final ByteBuffer data;
+  //offset of each image in data, per level: layer by layer, the faces of a layer one after the other
+  private final int[][] offsets;
+
+  private TextureContainer(int w, int h, int lv, int ly, int f, Format fmt, ByteBuffer d, int[][] o){
+    width = w;
+    height = h;
+    levels = lv;
+    layers = ly;
+    faces = f;
+    format = fmt;
+    data = d;
+    offsets = o;
+  }
+
+  //by the file extension
+  public static boolean isContainer(String fn){
+    String l = fn.toLowerCase();
+    return l.endsWith(".dds") || l.endsWith(".ktx2");
+  }
+
+  public static TextureContainer load(String fn) throws IOException{
+    ByteBuffer map;
+    try(FileChannel ch = FileChannel.open(new File(fn).toPath(), StandardOpenOption.READ)){
+      map = ch.map(MapMode.READ_ONLY, 0, ch.size());
+    }
+    map.order(ByteOrder.LITTLE_ENDIAN);
+
+    try{
+      if(map.remaining() >= 4 && map.getInt(0) == DDS_MAGIC) return readDDS(map);
+      if(isKTX2(map)) return readKTX2(map);
+    }catch(IndexOutOfBoundsException | IllegalArgumentException e){
+      throw new IOException(fn+" is broken: "+e);
+    }
+    throw new IOException(fn+" is neither a DDS nor a KTX2 file");
+  }
+
+  public boolean isCompressed(){
+    return format.blockBytes != 0;
+  }
+
+  public int getInternalFormat(){
+    return format.internal;
+  }
+
+  //bytes of one image of level l
+  public int imageSize(int l){
+    int w = Math.max(1, width >> l);
+    int h = Math.max(1, height >> l);
+    if(format.blockBytes == 0) return 4*w*h;
+    return ((w+3)/4) * ((h+3)/4) * format.blockBytes;
+  }
+
+  //face f of layer 0, level l
+  public ByteBuffer image(int l, int f){
+    return slice(offsets[l][f], imageSize(l));
+  }
+
+  //bytes on the gpu, including generated mips
+  public long getByteSize(){
+    long s = 0;
+    for(int l=0; l<levels; l++) s += (long)imageSize(l) * layers * faces;
+    return generatesMips() ? s*4/3 : s;
+  }
+
+  /*
+   * uploads all images into the texture bound to target, which is GL_TEXTURE_2D, GL_TEXTURE_CUBE_MAP or
+   * GL_TEXTURE_2D_ARRAY. a 2d texture needs a single image per level, a cube map six faces. arrays take anything but
+   * cube maps
+   */
+  public void upload(int target){
+    switch(target){
+    case GL11.GL_TEXTURE_2D:
+      if(layers != 1 || faces != 1) throw new IllegalArgumentException("not a 2d texture: "+layers+" layers, "+faces+" faces");
+      break;
+    case GL13.GL_TEXTURE_CUBE_MAP:
+      if(layers != 1 || faces != 6) throw new IllegalArgumentException("not a cube map: "+layers+" layers, "+faces+" faces");
+      break;
+    case GL30.GL_TEXTURE_2D_ARRAY:
+      if(faces != 1) throw new IllegalArgumentException("cube maps can't be loaded into an array");
+      break;
+    default:
+      throw new IllegalArgumentException("unsupported target "+target);
+    }
+
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    for(int l=0; l<levels; l++){
+      int w = Math.max(1, width >> l);
+      int h = Math.max(1, height >> l);
+      if(target == GL30.GL_TEXTURE_2D_ARRAY){
+        ByteBuffer b = level(l);
+        if(isCompressed()) glCompressedTexImage3D(target, l, format.internal, w, h, layers, 0, b);
+        else glTexImage3D(target, l, format.internal, w, h, layers, 0, format.format, GL_UNSIGNED_BYTE, b);
+      }else{
+        for(int f=0; f<faces; f++){
+          int t = target == GL13.GL_TEXTURE_CUBE_MAP ? GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X+f : target;
+          if(isCompressed()) glCompressedTexImage2D(t, l, format.internal, w, h, 0, image(l, f));
+          else glTexImage2D(t, l, format.internal, w, h, 0, format.format, GL_UNSIGNED_BYTE, image(l, f));
+        }
+      }
+    }
+
+    if(generatesMips()){
+      glGenerateMipmap(target);
+    }else{
+      glTexParameteri(target, GL_TEXTURE_MAX_LEVEL, levels-1);
+    }
+  }
+
+  private boolean generatesMips(){
+    return levels == 1 && !isCompressed();
+  }
+
+  //all layers of level l in one buffer. a slice if they are stored one after the other (KTX2), a copy otherwise (DDS)
+  private ByteBuffer level(int l){
+    int size = imageSize(l);
+    int[] o = offsets[l];
+    boolean contiguous = true;
+    for(int i=1; i<o.length; i++) contiguous &= o[i] == o[0] + i*size;
+    if(contiguous) return slice(o[0], size*o.length);
+
+    ByteBuffer b = ByteBuffer.allocateDirect(size*o.length);
+    for(int i=0; i<o.length; i++) b.put(slice(o[i], size));
+    b.flip();
+    return b;
+  }
+
+  private ByteBuffer slice(int offset, int size){
+    ByteBuffer b = data.duplicate();
+    b.position(offset);
+    b.limit(offset+size);
+    return b.slice();
+  }
+
+  private static TextureContainer readDDS(ByteBuffer map) throws IOException{
+    int flags = map.getInt(8);
+    int height = map.getInt(12);
+    int width = map.getInt(16);
+    int levels = (flags & 0x20000) != 0 ? Math.max(1, map.getInt(28)) : 1;
+    int pfFlags = map.getInt(80);
+    int fourCC = map.getInt(84);
+    int caps2 = map.getInt(112);
+
+    int layers = 1;
+    int faces = 1;
+    int dataStart = 128;
+    Format fmt;
+    if((pfFlags & 0x4) != 0){
+      if(fourCC == fourCC("DX10")){
+        fmt = dxgiFormat(map.getInt(128));
+        if(map.getInt(132) != 3) throw new IOException("only 2d DDS textures are supported");
+        boolean cube = (map.getInt(136) & 0x4) != 0;
+        layers = Math.max(1, map.getInt(140));
+        if(cube){
+          if(layers > 1) throw new IOException("cube map arrays are not supported");
+          faces = 6;
+        }
+        dataStart = 148;
+      }else{
+        fmt = legacyFormat(fourCC);
+      }
+    }else if((pfFlags & 0x40) != 0 && map.getInt(88) == 32){
+      int rMask = map.getInt(92);
+      int bMask = map.getInt(100);
+      if(rMask == 0xFF && bMask == 0xFF0000) fmt = RGBA8;
+      else if(rMask == 0xFF0000 && bMask == 0xFF) fmt = BGRA8;
+      else throw new IOException("unsupported DDS channel masks");
+    }else{
+      throw new IOException("unsupported DDS pixel format");
+    }
+
+    if((caps2 & 0x200) != 0){
+      if((caps2 & 0xFC00) != 0xFC00) throw new IOException("DDS cube maps need all six faces");
+      faces = 6;
+    }
+
+    //every layer (or face) is stored with its whole mip chain
+    TextureContainer c = new TextureContainer(width, height, levels, layers, faces, fmt, map, new int[levels][layers*faces]);
+    int pos = dataStart;
+    for(int i=0; i<layers*faces; i++){
+      for(int l=0; l<levels; l++){
+        c.offsets[l][i] = pos;
+        pos += c.imageSize(l);
+      }
+    }
+    if(pos > map.capacity()) throw new IOException("DDS file is truncated");
+    return c;
+  }
+
+  private static TextureContainer readKTX2(ByteBuffer map) throws IOException{
+    int vkFormat = map.getInt(12);
+    int width = map.getInt(20);
+    int height = map.getInt(24);
+    int depth = map.getInt(28);
+    int layers = Math.max(1, map.getInt(32));
+    int faces = map.getInt(36);
+    int levels = Math.max(1, map.getInt(40));
+    int scheme = map.getInt(44);
+
+    if(height == 0 || depth != 0) throw new IOException("only 2d KTX2 textures are supported");
+    if(faces != 1 && faces != 6) throw new IOException("KTX2 with "+faces+" faces");
+    if(faces == 6 && layers > 1) throw new IOException("cube map arrays are not supported");
+    if(scheme != 0) throw new IOException("supercompressed KTX2 files are not supported");
+    Format fmt = vkFormat(vkFormat);
+
+    //the level index follows the 80 byte header. within a level, images are stored layer by layer, face by face
+    TextureContainer c = new TextureContainer(width, height, levels, layers, faces, fmt, map, new int[levels][layers*faces]);
+    for(int l=0; l<levels; l++){
+      long offset = map.getLong(80 + l*24);
+      long length = map.getLong(80 + l*24 + 8);
+      int size = c.imageSize(l);
+      if(length < (long)size*layers*faces || offset + length > map.capacity()) throw new IOException("KTX2 level "+l+" is truncated");
+      for(int i=0; i<layers*faces; i++) c.offsets[l][i] = (int)offset + i*size;
+    }
+    return c;
+  }
+
+  private static boolean isKTX2(ByteBuffer map){
+    if(map.remaining() < 80) return false;
+    for(int i=0; i<KTX2_MAGIC.length; i++){
+      if(map.get(i) != KTX2_MAGIC[i]) return false;
+    }
+    return true;
+  }
+
+  private static int fourCC(String s){
+    return s.charAt(0) | s.charAt(1) << 8 | s.charAt(2) << 16 | s.charAt(3) << 24;
+  }
+
+  private static Format legacyFormat(int fourCC) throws IOException{
+    if(fourCC == fourCC("DXT1")) return BC1;
+    if(fourCC == fourCC("DXT3")) return BC2;
+    if(fourCC == fourCC("DXT5")) return BC3;
+    if(fourCC == fourCC("ATI1") || fourCC == fourCC("BC4U")) return BC4;
+    if(fourCC == fourCC("ATI2") || fourCC == fourCC("BC5U")) return BC5;
+    throw new IOException("unsupported DDS four cc 0x"+Integer.toHexString(fourCC));
+  }
+
+  private static Format dxgiFormat(int f) throws IOException{
+    switch(f){
+    case 28: return RGBA8;
+    case 29: return SRGB8_ALPHA8;
+    case 87: return BGRA8;
+    case 91: return SBGR8_ALPHA8;
+    case 71: return BC1;
+    case 72: return BC1_SRGB;
+    case 74: return BC2;
+    case 75: return BC2_SRGB;
+    case 77: return BC3;
+    case 78: return BC3_SRGB;
+    case 80: return BC4;
+    case 83: return BC5;
+    case 98: return BC7;
+    case 99: return BC7_SRGB;
+    default: throw new IOException("unsupported DXGI format "+f);
+    }
+  }
+
+  private static Format vkFormat(int f) throws IOException{
+    switch(f){
+    case 37: return RGBA8;
+    case 43: return SRGB8_ALPHA8;
+    case 44: return BGRA8;
+    case 50: return SBGR8_ALPHA8;
+    case 131: return BC1_RGB;
+    case 132: return BC1_SRGB_RGB;
+    case 133: return BC1;
+    case 134: return BC1_SRGB;
+    case 135: return BC2;
+    case 136: return BC2_SRGB;
+    case 137: return BC3;
+    case 138: return BC3_SRGB;
+    case 139: return BC4;
+    case 141: return BC5;
+    case 145: return BC7;
+    case 146: return BC7_SRGB;
+    default: throw new IOException("unsupported vulkan format "+f);
+    }
+  }
+}
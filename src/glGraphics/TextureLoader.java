@@ -0,0 +1,214 @@
+package glGraphics;
+
+/**
+ *
+ * Decodes texture images on a pool of worker threads, so only the glTexImage calls are left for the GL thread.
+ *
+ * prefetch() starts decoding a set of files right away, all in parallel. A Texture created later for one of these
+ * files (see Texture2D, TextureCM, Texture1D) takes the prefetched result, waiting for it only if it isn't done yet.
+ * Files that weren't prefetched are decoded on demand, cube map faces still in parallel. Loading a texture set this way
+ * takes about as long as its largest single image.
+ *
+ * With Ref.cpuMips, the mip chain is built on the worker right after decoding (see MipGenerator). prefetch() and
+ * decode() give the image alone (e.g. for TextureAtlas), prefetchMips() and decodeMips() its chain for a 2d texture,
+ * the *1D variants the chain of its first row. Without Ref.cpuMips, the chains only hold the base level.
+ *
+ * Decoded images are RGBA in direct ByteBuffers, ready for upload. Block compressed textures (see TextureCache) are
+ * prefetched and loaded the same way with prefetchCompressed() and compressed(); on a cache hit they skip the png
+ * decode completely.
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import extern.PNGDecoder;
+import util.Ref;
+
+public class TextureLoader {
+
+  public static class Image {
+    public final int width;
+    public final int height;
+    //RGBA, 4 bytes per pixel, positioned at 0
+    public final ByteBuffer pixels;
+
+    public Image(int w, int h, ByteBuffer p){
+      width = w;
+      height = h;
+      pixels = p;
+    }
+  }
+
+  //images at least this large inflate on a second thread while they are unfiltered (see PNGDecoder.decodePipelined)
+  private static final int PIPELINE_PIXELS = 256*256;
+
+  private static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+    @Override
+    public Thread newThread(Runnable r){
+      Thread t = new Thread(r, "texture decoder");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  //what is built from a decoded file: the image alone, or the mip chain of a 2d or 1d texture
+  private static final int IMAGE = 0;
+  private static final int MIPS_2D = 1;
+  private static final int MIPS_1D = 2;
+
+  //prefetched decodes not yet taken by a texture, by canonical path and what is built
+  private static final HashMap<String, Future<Image[]>> pending = new HashMap<>();
+  //same for compressed textures, by canonical path and format
+  private static final HashMap<String, Future<TextureCache.Compressed>> pendingCompressed = new HashMap<>();
+
+  public static void prefetch(String... fns){
+    prefetch(IMAGE, fns);
+  }
+
+  public static void prefetchMips(String... fns){
+    prefetch(MIPS_2D, fns);
+  }
+
+  public static void prefetchMips1D(String... fns){
+    prefetch(MIPS_1D, fns);
+  }
+
+  //the six faces of a cube map, named prefix0.png to prefix5.png
+  public static void prefetchCube(String prefix){
+    prefetch(MIPS_2D, cubeFaces(prefix));
+  }
+
+  private static void prefetch(int mode, String... fns){
+    synchronized(pending){
+      for(String fn : fns){
+        String key = key(fn)+"#"+mode;
+        if(!pending.containsKey(key)) pending.put(key, submit(fn, mode));
+      }
+    }
+  }
+
+  //a prefetched decode, or a new one
+  private static Future<Image[]> decodeAsync(String fn, int mode){
+    synchronized(pending){
+      Future<Image[]> f = pending.remove(key(fn)+"#"+mode);
+      return f != null ? f : submit(fn, mode);
+    }
+  }
+
+  public static Image decode(String fn) throws IOException{
+    return get(decodeAsync(fn, IMAGE))[0];
+  }
+
+  //base level first
+  public static Image[] decodeMips(String fn) throws IOException{
+    return get(decodeAsync(fn, MIPS_2D));
+  }
+
+  //the chain of the first row
+  public static Image[] decodeMips1D(String fn) throws IOException{
+    return get(decodeAsync(fn, MIPS_1D));
+  }
+
+  //the mip chain of each face. all faces are decoded at once
+  public static Image[][] decodeCube(String prefix) throws IOException{
+    String[] fns = cubeFaces(prefix);
+    List<Future<Image[]>> f = new ArrayList<Future<Image[]>>(fns.length);
+    for(int i=0; i<fns.length; i++) f.add(decodeAsync(fns[i], MIPS_2D));
+
+    Image[][] faces = new Image[fns.length][];
+    for(int i=0; i<fns.length; i++) faces[i] = get(f.get(i));
+    return faces;
+  }
+
+  public static void prefetchCompressed(int format, String... fns){
+    synchronized(pendingCompressed){
+      for(String fn : fns){
+        String key = key(fn)+"#bc"+format;
+        if(!pendingCompressed.containsKey(key)) pendingCompressed.put(key, submitCompressed(fn, format));
+      }
+    }
+  }
+
+  //a prefetched compressed texture, or a new one. a cache miss compresses the image on the worker
+  public static TextureCache.Compressed compressed(String fn, int format) throws IOException{
+    Future<TextureCache.Compressed> f;
+    synchronized(pendingCompressed){
+      f = pendingCompressed.remove(key(fn)+"#bc"+format);
+    }
+    return get(f != null ? f : submitCompressed(fn, format));
+  }
+
+  //decodes on the calling thread
+  public static Image decodePNG(String fn) throws IOException{
+    try(FileInputStream fis = new FileInputStream(fn)){
+      PNGDecoder peng = new PNGDecoder(fis);
+      ByteBuffer beebee = ByteBuffer.allocateDirect(4 * peng.getWidth() * peng.getHeight());
+      if(peng.getWidth() * peng.getHeight() >= PIPELINE_PIXELS){
+        peng.decodePipelined(beebee, peng.getWidth() * 4, PNGDecoder.Format.RGBA);
+      }else{
+        peng.decode(beebee, peng.getWidth() * 4, PNGDecoder.Format.RGBA);
+      }
+      beebee.flip();
+      return new Image(peng.getWidth(), peng.getHeight(), beebee);
+    }
+  }
+
+  private static Future<Image[]> submit(final String fn, final int mode){
+    return pool.submit(new Callable<Image[]>(){
+      @Override
+      public Image[] call() throws IOException{
+        Image img = decodePNG(fn);
+        if(mode == IMAGE || !Ref.cpuMips) return new Image[]{img};
+        if(mode == MIPS_1D) img = new Image(img.width, 1, img.pixels);
+        return MipGenerator.chain(img);
+      }
+    });
+  }
+
+  private static Future<TextureCache.Compressed> submitCompressed(final String fn, final int format){
+    return pool.submit(new Callable<TextureCache.Compressed>(){
+      @Override
+      public TextureCache.Compressed call() throws IOException{
+        return TextureCache.load(fn, format);
+      }
+    });
+  }
+
+  private static <T> T get(Future<T> f) throws IOException{
+    try{
+      return f.get();
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static String[] cubeFaces(String prefix){
+    String[] fns = new String[6];
+    for(int i=0; i<6; i++) fns[i] = prefix+i+".png";
+    return fns;
+  }
+
+  private static String key(String fn){
+    try{
+      return new File(fn).getCanonicalPath();
+    }catch(IOException e){
+      return new File(fn).getAbsolutePath();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package glGraphics;
+
+/**
+ *
+ * Keeps the textures of the AssetCache within a budget of gpu memory (Ref.textureBudgetBytes). glGraphics.execute()
+ * marks every texture it is about to bind with the current frame. At the end of the frame, the least recently bound
+ * textures are evicted until the resident ones fit into the budget. Textures bound in the current frame are never
+ * evicted, so a frame that needs more than the budget gets it.
+ *
+ * The size of a texture is its getByteSize(), which includes the mip chain and all faces.
+ *
+ * An evicted texture keeps its object, only its gpu memory is freed. The next time it is drawn, it is loaded again
+ * the way it was loaded the first time: from its TextureCache entry or its source file.
+ *
+ * Only used on the GL thread.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.SimpleLogger;
+
+public class TextureResidency {
+
+  //loads the image of an evicted texture again, into the same object
+  interface Loader{
+    void load(Texture t);
+  }
+
+  private static class Entry{
+    private String name;
+    private Loader loader;
+    private int lastFrame = -1;
+    private boolean evicted;
+
+    public Entry(String n, Loader l){
+      name = n;
+      loader = l;
+    }
+  }
+
+  //access ordered, least recently used first
+  private LinkedHashMap<Texture, Entry> entries;
+  private long budget;
+
+  private int evictions;
+  private int restores;
+
+  public TextureResidency(long budget){
+    this.budget = budget;
+    entries = new LinkedHashMap<>(64, 0.75f, true);
+  }
+
+  void add(Texture t, String name, Loader l){
+    entries.put(t, new Entry(name, l));
+  }
+
+  void remove(Texture t){
+    entries.remove(t);
+  }
+
+  //marks t as used in frame and loads it again if it was evicted. textures that weren't added are ignored
+  public void use(Texture t, int frame){
+    Entry e = entries.get(t);
+    if(e == null) return;
+    e.lastFrame = frame;
+    if(e.evicted){
+      e.evicted = false;
+      e.loader.load(t);
+      restores++;
+      SimpleLogger.log("restored "+e.name, 10, TextureResidency.class, "use");
+    }
+  }
+
+  //evicts the least recently used textures until the rest fits into the budget
+  public void trim(int frame){
+    long resident = getResidentBytes();
+    if(resident <= budget) return;
+
+    //iterating doesn't change the access order
+    for(Map.Entry<Texture, Entry> me : entries.entrySet()){
+      if(resident <= budget) break;
+      Texture t = me.getKey();
+      Entry e = me.getValue();
+      if(e.evicted || e.lastFrame == frame) continue;
+
+      resident -= t.getByteSize();
+      t.evict();
+      e.evicted = true;
+      evictions++;
+      SimpleLogger.log("evicted "+e.name+" ("+t.getByteSize()+" bytes)", 10, TextureResidency.class, "trim");
+    }
+  }
+
+  public long getResidentBytes(){
+    long s = 0;
+    for(Map.Entry<Texture, Entry> me : entries.entrySet()){
+      if(!me.getValue().evicted) s += me.getKey().getByteSize();
+    }
+    return s;
+  }
+
+  public long getBudget(){
+    return budget;
+  }
+
+  public void setBudget(long b){
+    budget = b;
+  }
+
+  public int getEvictions(){
+    return evictions;
+  }
+
+  public int getRestores(){
+    return restores;
+  }
+
+  public void logStats(){
+    SimpleLogger.log("texture residency: "+getResidentBytes()+"/"+budget+" bytes, "+entries.size()+" textures, "
+                     +evictions+" evictions, "+restores+" restores", 1, TextureResidency.class, "logStats");
+  }
+}
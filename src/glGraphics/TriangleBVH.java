@@ -0,0 +1,292 @@
+package glGraphics;
+
+/**
+ *
+ * Bounding volume hierarchy over the triangles of one Mesh, used for ray picking on the cpu.
+ *
+ * Built top down with a binned surface area heuristic: the centroids of a node are sorted into BINS buckets along
+ * the longest axis, and the split between buckets with the lowest estimated traversal cost wins. Nodes with few
+ * triangles, or where no split is cheaper than testing all triangles, become leaves.
+ *
+ * The tree is flattened into primitive arrays in depth first order, so the left child of a node always directly
+ * follows it. Leaf triangles are copied into one float array (9 floats each) in leaf order, so a leaf is tested
+ * without chasing indices.
+ *
+ */
+
+import java.util.Arrays;
+
+public class TriangleBVH {
+
+  private static final int BINS = 16;
+  private static final int MAX_LEAF = 4;
+  //cost of one node traversal relative to one triangle test
+  private static final float TRAVERSAL_COST = 1;
+
+  //min x,y,z, max x,y,z per node
+  private float[] bounds;
+  //right child for inner nodes, first triangle for leaves
+  private int[] offset;
+  //0 for inner nodes, triangle count for leaves
+  private int[] count;
+  private int nodeCount;
+
+  //triangle corners in leaf order and the original triangle index of each
+  private float[] tris;
+  private int[] triIds;
+
+  private int[] stack;
+
+  /*
+   * positions holds 3 floats per vertex, elems 3 vertex indices per triangle. triangle ids returned by
+   * intersect are positions in elems/3
+   */
+  public TriangleBVH(float[] positions, int[] elems){
+    int triCount = elems.length/3;
+    float[] centroid = new float[triCount*3];
+    float[] triBox = new float[triCount*6];
+    for(int t=0; t<triCount; t++){
+      for(int k=0; k<3; k++){
+        float a = positions[elems[t*3]*3+k];
+        float b = positions[elems[t*3+1]*3+k];
+        float c = positions[elems[t*3+2]*3+k];
+        triBox[t*6+k] = Math.min(a, Math.min(b, c));
+        triBox[t*6+k+3] = Math.max(a, Math.max(b, c));
+        centroid[t*3+k] = (a+b+c)/3;
+      }
+    }
+
+    int[] ids = new int[triCount];
+    for(int t=0; t<triCount; t++) ids[t] = t;
+
+    int maxNodes = Math.max(1, 2*triCount-1);
+    bounds = new float[maxNodes*6];
+    offset = new int[maxNodes];
+    count = new int[maxNodes];
+    nodeCount = 0;
+    stack = new int[64];
+
+    build(ids, 0, triCount, triBox, centroid, new float[BINS*6], new int[BINS], new float[BINS*2]);
+
+    bounds = Arrays.copyOf(bounds, nodeCount*6);
+    offset = Arrays.copyOf(offset, nodeCount);
+    count = Arrays.copyOf(count, nodeCount);
+
+    tris = new float[triCount*9];
+    triIds = ids;
+    for(int i=0; i<triCount; i++){
+      int t = ids[i];
+      for(int c=0; c<3; c++){
+        for(int k=0; k<3; k++) tris[i*9+c*3+k] = positions[elems[t*3+c]*3+k];
+      }
+    }
+  }
+
+  public int getNodeCount(){
+    return nodeCount;
+  }
+
+  /*
+   * closest hit of the ray with t in [0, maxT]. writes t, u, v (barycentrics of corners 1 and 2) into hit and
+   * returns the triangle id, or -1 if nothing was hit
+   */
+  public synchronized int intersect(float[] origin, float[] dir, float maxT, float[] hit){
+    if(nodeCount == 0) return -1;
+    float[] invDir = {1/dir[0], 1/dir[1], 1/dir[2]};
+    float best = maxT;
+    int bestTri = -1;
+    float bu = 0, bv = 0;
+
+    int sp = 0;
+    stack[sp++] = 0;
+    while(sp > 0){
+      int n = stack[--sp];
+      if(slab(n, origin, dir, invDir) > best) continue;
+
+      if(count[n] > 0){
+        for(int i=offset[n]; i<offset[n]+count[n]; i++){
+          int o = i*9;
+          //moeller-trumbore
+          float e1x = tris[o+3]-tris[o], e1y = tris[o+4]-tris[o+1], e1z = tris[o+5]-tris[o+2];
+          float e2x = tris[o+6]-tris[o], e2y = tris[o+7]-tris[o+1], e2z = tris[o+8]-tris[o+2];
+          float px = dir[1]*e2z - dir[2]*e2y, py = dir[2]*e2x - dir[0]*e2z, pz = dir[0]*e2y - dir[1]*e2x;
+          float det = e1x*px + e1y*py + e1z*pz;
+          if(det > -1e-12f && det < 1e-12f) continue;
+          float inv = 1/det;
+          float sx = origin[0]-tris[o], sy = origin[1]-tris[o+1], sz = origin[2]-tris[o+2];
+          float u = (sx*px + sy*py + sz*pz)*inv;
+          if(u < 0 || u > 1) continue;
+          float qx = sy*e1z - sz*e1y, qy = sz*e1x - sx*e1z, qz = sx*e1y - sy*e1x;
+          float v = (dir[0]*qx + dir[1]*qy + dir[2]*qz)*inv;
+          if(v < 0 || u+v > 1) continue;
+          float t = (e2x*qx + e2y*qy + e2z*qz)*inv;
+          if(t >= 0 && t < best){
+            best = t;
+            bestTri = triIds[i];
+            bu = u;
+            bv = v;
+          }
+        }
+      }else{
+        //visit the nearer child first, it's pushed last
+        int l = n+1, r = offset[n];
+        float tl = slab(l, origin, dir, invDir);
+        float tr = slab(r, origin, dir, invDir);
+        if(sp+2 > stack.length) stack = Arrays.copyOf(stack, stack.length*2);
+        if(tl <= tr){
+          if(tr <= best) stack[sp++] = r;
+          if(tl <= best) stack[sp++] = l;
+        }else{
+          if(tl <= best) stack[sp++] = l;
+          if(tr <= best) stack[sp++] = r;
+        }
+      }
+    }
+
+    if(bestTri < 0) return -1;
+    hit[0] = best;
+    hit[1] = bu;
+    hit[2] = bv;
+    return bestTri;
+  }
+
+  //entry distance into the box of node n, infinity if missed
+  private float slab(int n, float[] origin, float[] dir, float[] inv){
+    int o = n*6;
+    float tmin = Float.NEGATIVE_INFINITY, tmax = Float.POSITIVE_INFINITY;
+    for(int k=0; k<3; k++){
+      //parallel to the slab: no limit inside of it, a miss outside. 0*inf would give NaN
+      if(dir[k] == 0){
+        if(origin[k] < bounds[o+k] || origin[k] > bounds[o+k+3]) return Float.POSITIVE_INFINITY;
+        continue;
+      }
+      float t0 = (bounds[o+k]-origin[k])*inv[k], t1 = (bounds[o+k+3]-origin[k])*inv[k];
+      tmin = Math.max(tmin, Math.min(t0, t1));
+      tmax = Math.min(tmax, Math.max(t0, t1));
+    }
+
+    if(tmax < Math.max(tmin, 0)) return Float.POSITIVE_INFINITY;
+    return Math.max(tmin, 0);
+  }
+
+  //builds the subtree over ids[begin, end) and returns its node
+  private int build(int[] ids, int begin, int end, float[] triBox, float[] centroid, float[] binBox, int[] binCount, float[] binCost){
+    int n = nodeCount++;
+    int o = n*6;
+    float[] cMin = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+    float[] cMax = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+    for(int k=0; k<3; k++){
+      bounds[o+k] = Float.MAX_VALUE;
+      bounds[o+k+3] = -Float.MAX_VALUE;
+    }
+    for(int i=begin; i<end; i++){
+      int t = ids[i];
+      for(int k=0; k<3; k++){
+        bounds[o+k] = Math.min(bounds[o+k], triBox[t*6+k]);
+        bounds[o+k+3] = Math.max(bounds[o+k+3], triBox[t*6+k+3]);
+        cMin[k] = Math.min(cMin[k], centroid[t*3+k]);
+        cMax[k] = Math.max(cMax[k], centroid[t*3+k]);
+      }
+    }
+
+    int triCount = end-begin;
+    int axis = 0;
+    for(int k=1; k<3; k++) if(cMax[k]-cMin[k] > cMax[axis]-cMin[axis]) axis = k;
+    float extent = cMax[axis]-cMin[axis];
+
+    if(triCount <= MAX_LEAF || extent <= 0) return leaf(n, begin, triCount);
+
+    //bin the centroids
+    Arrays.fill(binCount, 0);
+    for(int b=0; b<BINS; b++){
+      for(int k=0; k<3; k++){
+        binBox[b*6+k] = Float.MAX_VALUE;
+        binBox[b*6+k+3] = -Float.MAX_VALUE;
+      }
+    }
+    float scale = BINS / extent * 0.9999f;
+    for(int i=begin; i<end; i++){
+      int t = ids[i];
+      int b = (int)((centroid[t*3+axis]-cMin[axis])*scale);
+      binCount[b]++;
+      for(int k=0; k<3; k++){
+        binBox[b*6+k] = Math.min(binBox[b*6+k], triBox[t*6+k]);
+        binBox[b*6+k+3] = Math.max(binBox[b*6+k+3], triBox[t*6+k+3]);
+      }
+    }
+
+    //sweep from the left, storing area*count of everything left of each split, then from the right
+    float[] acc = new float[6];
+    resetBox(acc);
+    int cnt = 0;
+    for(int b=0; b<BINS-1; b++){
+      growBox(acc, binBox, b);
+      cnt += binCount[b];
+      binCost[b*2] = cnt == 0 ? 0 : area(acc)*cnt;
+    }
+    resetBox(acc);
+    cnt = 0;
+    float bestCost = Float.MAX_VALUE;
+    int bestSplit = -1;
+    for(int b=BINS-1; b>0; b--){
+      growBox(acc, binBox, b);
+      cnt += binCount[b];
+      float c = binCost[(b-1)*2] + (cnt == 0 ? 0 : area(acc)*cnt);
+      if(c < bestCost){
+        bestCost = c;
+        bestSplit = b;
+      }
+    }
+
+    float leafCost = triCount;
+    float splitCost = TRAVERSAL_COST + bestCost / area(bounds, o);
+    if(splitCost >= leafCost && triCount <= 4*MAX_LEAF) return leaf(n, begin, triCount);
+
+    //partition in place: bins below bestSplit go left
+    int mid = begin;
+    for(int i=begin; i<end; i++){
+      int t = ids[i];
+      int b = (int)((centroid[t*3+axis]-cMin[axis])*scale);
+      if(b < bestSplit){
+        ids[i] = ids[mid];
+        ids[mid++] = t;
+      }
+    }
+    if(mid == begin || mid == end) mid = (begin+end)/2;
+
+    count[n] = 0;
+    build(ids, begin, mid, triBox, centroid, binBox, binCount, binCost);
+    offset[n] = build(ids, mid, end, triBox, centroid, binBox, binCount, binCost);
+    return n;
+  }
+
+  private int leaf(int n, int begin, int triCount){
+    offset[n] = begin;
+    count[n] = triCount;
+    return n;
+  }
+
+  private static void resetBox(float[] b){
+    for(int k=0; k<3; k++){
+      b[k] = Float.MAX_VALUE;
+      b[k+3] = -Float.MAX_VALUE;
+    }
+  }
+
+  private static void growBox(float[] b, float[] src, int i){
+    for(int k=0; k<3; k++){
+      b[k] = Math.min(b[k], src[i*6+k]);
+      b[k+3] = Math.max(b[k+3], src[i*6+k+3]);
+    }
+  }
+
+  private static float area(float[] b){
+    return area(b, 0);
+  }
+
+  private static float area(float[] b, int o){
+    float dx = b[o+3]-b[o], dy = b[o+4]-b[o+1], dz = b[o+5]-b[o+2];
+    if(dx < 0) return 0;
+    return 2*(dx*dy + dy*dz + dz*dx);
+  }
+}
@@ -12,10 +12,6 @@ package glGraphics;
  * context configuration before drawing.
  */
 
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
-import static org.lwjgl.opengl.GL20.glUseProgram;
-
 import java.awt.Font;
 import java.awt.FontFormatException;
 import java.io.IOException;
@@ -38,11 +34,13 @@ public class TrueTypeFontWrapper {
     loaded = false;
 
     try {
-      glUseProgram(0);
-      glActiveTexture(GL_TEXTURE0);
+      GLState.useProgram(0);
+      GLState.activeTexture(0);
       Font awtFont = Font.createFont(Font.TRUETYPE_FONT, ResourceLoader.getResourceAsStream(fn));
       awtFont = awtFont.deriveFont(size);
       font = new TrueTypeFont(awtFont, true);
+      //slick uploaded the glyphs on unit 0
+      GLState.forgetTexture(0);
       loaded = true;
     } catch (FontFormatException e) {
       e.printStackTrace();
@@ -59,11 +57,13 @@ public class TrueTypeFontWrapper {
     GL11.glOrtho(0, Ref.xRes, Ref.yRes, 0, 1, -1);
     GL11.glMatrixMode(GL11.GL_MODELVIEW);
     
-    glUseProgram(0);
-    glActiveTexture(GL_TEXTURE0);
+    GLState.useProgram(0);
+    GLState.activeTexture(0);
     //Slick keeps track of bound textures. So tell slick to re-bind its own damn stuff
     TextureImpl.bindNone();
     font.drawString(x, y, text, new Color(color.x, color.y, color.z, color.w));
+    //and the other way round
+    GLState.forgetTexture(0);
   }
 
   public int getTextWidth(String t){
@@ -0,0 +1,98 @@
+package glGraphics;
+
+/**
+ *
+ * Describes how the vertices of a Mesh are laid out in its vertex buffer: the stride and, for each shader attribute,
+ * its location, component count, gl data type and byte offset. apply() issues the matching glVertexAttribPointer calls
+ * for the currently bound VertexArrayObject.
+ *
+ * Layouts are stored in the binary mesh cache, so a cached mesh can be uploaded without knowing how it was built.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+
+import java.nio.ByteBuffer;
+
+import util.Ref;
+
+public class VertexLayout {
+
+  public static class Attribute {
+    public final int location;
+    public final int size;
+    public final int type;
+    public final boolean normalized;
+    public final int offset;
+    
+    public Attribute(int loc, int s, int t, boolean n, int off){
+      location = loc;
+      size = s;
+      type = t;
+      normalized = n;
+      offset = off;
+    }
+  }
+  
+  //the classic layout: position, normal and uv as 8 floats
+  public static final VertexLayout FLOAT = new VertexLayout(8*(Float.SIZE/8), new Attribute[]{
+    new Attribute(Ref.shPosAttrib, 3, GL_FLOAT, false, 0),
+    new Attribute(Ref.shNorAttrib, 3, GL_FLOAT, false, 3*(Float.SIZE/8)),
+    new Attribute(Ref.shTexAttrib, 2, GL_FLOAT, false, 6*(Float.SIZE/8))
+  });
+  
+  private final int stride;
+  private final Attribute[] attribs;
+  
+  public VertexLayout(int stride, Attribute[] attribs){
+    this.stride = stride;
+    this.attribs = attribs.clone();
+  }
+  
+  public int getStride(){
+    return stride;
+  }
+  
+  public int getAttributeCount(){
+    return attribs.length;
+  }
+  
+  public Attribute getAttribute(int i){
+    return attribs[i];
+  }
+  
+  //expects the VertexArrayObject and the vertex buffer to be bound
+  public void apply(){
+    for(Attribute a : attribs){
+      glVertexAttribPointer(a.location, a.size, a.type, a.normalized, stride, a.offset);
+      glEnableVertexAttribArray(a.location);
+    }
+  }
+  
+  public int byteSize(){
+    return (2 + attribs.length*5) * (Integer.SIZE/8);
+  }
+  
+  public void write(ByteBuffer b){
+    b.putInt(stride);
+    b.putInt(attribs.length);
+    for(Attribute a : attribs){
+      b.putInt(a.location);
+      b.putInt(a.size);
+      b.putInt(a.type);
+      b.putInt(a.normalized ? 1 : 0);
+      b.putInt(a.offset);
+    }
+  }
+  
+  public static VertexLayout read(ByteBuffer b){
+    int stride = b.getInt();
+    Attribute[] at = new Attribute[b.getInt()];
+    for(int i=0; i<at.length; i++){
+      at[i] = new Attribute(b.getInt(), b.getInt(), b.getInt(), b.getInt() != 0, b.getInt());
+    }
+    return new VertexLayout(stride, at);
+  }
+}
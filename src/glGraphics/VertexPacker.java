@@ -0,0 +1,203 @@
+package glGraphics;
+
+/**
+ *
+ * Packs interleaved float vertices (position, normal, uv as 8 floats) into one of several vertex formats.
+ * Each attribute can be stored in full precision or in a compact encoding:
+ *
+ * positions: 3 floats, or 3 normalized unsigned shorts (+1 pad). Quantized positions cover the bounding box of the
+ *            mesh: the shader reconstructs them as attrib*posScale + posBias. Max error per axis is extent/131070,
+ *            e.g. 0.015mm on a 2m object.
+ * normals:   3 floats, or GL_INT_2_10_10_10_REV. Max error per component is 1/1022, about 0.1 degrees.
+ * uvs:       2 floats, 2 half floats (relative error 2^-11, any range), or 2 normalized unsigned shorts
+ *            (max error 1/131070, only for uvs inside [0,1]).
+ *
+ * The fully compact layout is 16 bytes per vertex instead of 32.
+ *
+ */
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+import static org.lwjgl.opengl.GL33.GL_INT_2_10_10_10_REV;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import util.Ref;
+
+public class VertexPacker {
+
+  public static final int POS_FLOAT = 0;
+  public static final int POS_UNORM16 = 1;
+
+  public static final int NOR_FLOAT = 0;
+  public static final int NOR_INT_2_10_10_10 = 1;
+
+  public static final int UV_FLOAT = 0;
+  public static final int UV_HALF = 1;
+  public static final int UV_UNORM16 = 2;
+  //picks UV_UNORM16 if all uvs are inside [0,1], UV_HALF otherwise
+  public static final int UV_AUTO = 3;
+
+  public static class Packed {
+    public final VertexLayout layout;
+    public final ByteBuffer vertices;
+    public final float[] posScale;
+    public final float[] posBias;
+
+    private Packed(VertexLayout l, ByteBuffer v, float[] s, float[] b){
+      layout = l;
+      vertices = v;
+      posScale = s;
+      posBias = b;
+    }
+  }
+
+  public static Packed pack(float[] data, int count, int posFormat, int norFormat, int uvFormat){
+    if(uvFormat == UV_AUTO) uvFormat = uvsNormalized(data, count) ? UV_UNORM16 : UV_HALF;
+
+    //build the layout from the chosen attribute formats
+    ArrayList<VertexLayout.Attribute> at = new ArrayList<>();
+    int off = 0;
+
+    int posOff = off;
+    if(posFormat == POS_UNORM16){
+      at.add(new VertexLayout.Attribute(Ref.shPosAttrib, 3, GL_UNSIGNED_SHORT, true, off));
+      off += 8; //padded to 4 shorts, to keep the following attributes 4 byte aligned
+    }else{
+      at.add(new VertexLayout.Attribute(Ref.shPosAttrib, 3, GL_FLOAT, false, off));
+      off += 12;
+    }
+
+    int norOff = off;
+    if(norFormat == NOR_INT_2_10_10_10){
+      at.add(new VertexLayout.Attribute(Ref.shNorAttrib, 4, GL_INT_2_10_10_10_REV, true, off));
+      off += 4;
+    }else{
+      at.add(new VertexLayout.Attribute(Ref.shNorAttrib, 3, GL_FLOAT, false, off));
+      off += 12;
+    }
+
+    int uvOff = off;
+    if(uvFormat == UV_HALF){
+      at.add(new VertexLayout.Attribute(Ref.shTexAttrib, 2, GL_HALF_FLOAT, false, off));
+      off += 4;
+    }else if(uvFormat == UV_UNORM16){
+      at.add(new VertexLayout.Attribute(Ref.shTexAttrib, 2, GL_UNSIGNED_SHORT, true, off));
+      off += 4;
+    }else{
+      at.add(new VertexLayout.Attribute(Ref.shTexAttrib, 2, GL_FLOAT, false, off));
+      off += 8;
+    }
+
+    int stride = off;
+    VertexLayout layout = new VertexLayout(stride, at.toArray(new VertexLayout.Attribute[at.size()]));
+
+    //quantization range for positions: the bounding box of the mesh
+    float[] scale = {1, 1, 1};
+    float[] bias = {0, 0, 0};
+    if(posFormat == POS_UNORM16 && count > 0){
+      for(int k=0; k<3; k++){
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for(int v=0; v<count; v++){
+          min = Math.min(min, data[v*8+k]);
+          max = Math.max(max, data[v*8+k]);
+        }
+        bias[k] = min;
+        scale[k] = max > min ? max-min : 1;
+      }
+    }
+
+    ByteBuffer b = ByteBuffer.allocateDirect(count*stride).order(ByteOrder.nativeOrder());
+    for(int v=0; v<count; v++){
+      int base = v*stride;
+      int d = v*8;
+
+      if(posFormat == POS_UNORM16){
+        for(int k=0; k<3; k++){
+          b.putShort(base+posOff+k*2, unorm16((data[d+k]-bias[k]) / scale[k]));
+        }
+        b.putShort(base+posOff+6, (short)0);
+      }else{
+        for(int k=0; k<3; k++) b.putFloat(base+posOff+k*4, data[d+k]);
+      }
+
+      if(norFormat == NOR_INT_2_10_10_10){
+        b.putInt(base+norOff, packNormal(data[d+3], data[d+4], data[d+5]));
+      }else{
+        for(int k=0; k<3; k++) b.putFloat(base+norOff+k*4, data[d+3+k]);
+      }
+
+      for(int k=0; k<2; k++){
+        float f = data[d+6+k];
+        if(uvFormat == UV_HALF)         b.putShort(base+uvOff+k*2, toHalf(f));
+        else if(uvFormat == UV_UNORM16) b.putShort(base+uvOff+k*2, unorm16(f));
+        else                            b.putFloat(base+uvOff+k*4, f);
+      }
+    }
+
+    return new Packed(layout, b, scale, bias);
+  }
+
+  private static boolean uvsNormalized(float[] data, int count){
+    for(int v=0; v<count; v++){
+      float u = data[v*8+6];
+      float w = data[v*8+7];
+      if(u < 0 || u > 1 || w < 0 || w > 1) return false;
+    }
+    return true;
+  }
+
+  private static short unorm16(float f){
+    f = Math.max(0, Math.min(1, f));
+    return (short)Math.round(f*65535f);
+  }
+
+  //x in bits 0-9, y in 10-19, z in 20-29, w=0. each component a signed normalized 10 bit value
+  private static int packNormal(float x, float y, float z){
+    return (snorm10(x)) | (snorm10(y) << 10) | (snorm10(z) << 20);
+  }
+
+  private static int snorm10(float f){
+    f = Math.max(-1, Math.min(1, f));
+    return Math.round(f*511f) & 0x3ff;
+  }
+
+  //float32 to float16, round to nearest even
+  static short toHalf(float f){
+    int bits = Float.floatToIntBits(f);
+    int sign = (bits >>> 16) & 0x8000;
+    int exp = (bits >>> 23) & 0xff;
+    int mant = bits & 0x7fffff;
+
+    if(exp == 0xff){
+      //inf or nan
+      return (short)(sign | 0x7c00 | (mant != 0 ? 0x200 : 0));
+    }
+
+    int e = exp - 127 + 15;
+    if(e >= 0x1f){
+      //too big, becomes inf
+      return (short)(sign | 0x7c00);
+    }
+    if(e <= 0){
+      //subnormal or zero
+      if(e < -10) return (short)sign;
+      mant |= 0x800000;
+      int shift = 14 - e;
+      int h = mant >> shift;
+      int rest = mant & ((1 << shift)-1);
+      int half = 1 << (shift-1);
+      if(rest > half || (rest == half && (h & 1) != 0)) h++;
+      return (short)(sign | h);
+    }
+
+    int h = (e << 10) | (mant >> 13);
+    int rest = mant & 0x1fff;
+    if(rest > 0x1000 || (rest == 0x1000 && (h & 1) != 0)) h++; //may carry into the exponent, which is correct
+    return (short)(sign | h);
+  }
+}
@@ -0,0 +1,96 @@
+package glGraphics;
+
+/**
+ *
+ * Collects vertices of a fixed number of floats and merges exact duplicates. Each added vertex is hashed over
+ * the bit patterns of all its values (position, normal and uv together), so two face corners only share a vertex
+ * if every attribute is identical. The returned index can be used directly for an element buffer.
+ *
+ * Lookup uses open addressing with linear probing over a power-of-two table of vertex indices, so no objects
+ * are created per vertex.
+ *
+ */
+
+import java.util.Arrays;
+
+import util.FloatList;
+
+public class VertexWelder {
+
+  private final int stride;
+  private final FloatList vertices;
+  
+  private int[] table;
+  private int mask;
+  private int count;
+  
+  public VertexWelder(int stride, int expected){
+    this.stride = stride;
+    vertices = new FloatList(Math.max(expected, 16)*stride);
+    
+    int cap = 16;
+    while(cap < expected*2) cap *= 2;
+    table = new int[cap];
+    Arrays.fill(table, -1);
+    mask = cap-1;
+    count = 0;
+  }
+  
+  //returns the index of the vertex stored at v[off..off+stride), adding it if it is new
+  public int add(float[] v, int off){
+    int h = hash(v, off) & mask;
+    float[] vd = vertices.array();
+    
+    while(table[h] != -1){
+      int cand = table[h];
+      if(equal(vd, cand*stride, v, off)) return cand;
+      h = (h+1) & mask;
+    }
+    
+    int idx = count++;
+    table[h] = idx;
+    for(int i=0; i<stride; i++) vertices.add(v[off+i]);
+    
+    //keep the load factor below 0.5
+    if(count*2 > table.length) rehash();
+    return idx;
+  }
+  
+  public int getVertexCount(){
+    return count;
+  }
+  
+  public float[] toArray(){
+    return vertices.toArray();
+  }
+  
+  private void rehash(){
+    float[] vd = vertices.array();
+    table = new int[table.length*2];
+    Arrays.fill(table, -1);
+    mask = table.length-1;
+    
+    for(int i=0; i<count; i++){
+      int h = hash(vd, i*stride) & mask;
+      while(table[h] != -1) h = (h+1) & mask;
+      table[h] = i;
+    }
+  }
+  
+  private int hash(float[] v, int off){
+    int h = 0x9E3779B9;
+    for(int i=0; i<stride; i++){
+      h ^= Float.floatToIntBits(v[off+i]);
+      h *= 0x01000193;
+      h ^= h >>> 15;
+    }
+    return h;
+  }
+  
+  private boolean equal(float[] a, int ao, float[] b, int bo){
+    for(int i=0; i<stride; i++){
+      if(Float.floatToIntBits(a[ao+i]) != Float.floatToIntBits(b[bo+i])) return false;
+    }
+    return true;
+  }
+}
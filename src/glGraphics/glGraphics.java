@@ -17,9 +17,15 @@ package glGraphics;
  * Object data ready to be sent to the gpu are stored in so called Constructs.
  * They essentially represent an entity system for renderable objects, together with TrueTyoeFontWrappers.
  * 
- * Draw calls reference a registered object, determinating the order or draw calls. Eventually, the execute() method
- * is called. It is expected, that he FrameBufferManager is in the correct drawState the execute() is called. The
- * whole drawOrders list is traversed and drawn into the offscreen texture. After drawing, and the workOrder list is cleared.
+ * Draw calls reference a registered object. Eventually, the execute() method is called. It is expected, that he
+ * FrameBufferManager is in the correct drawState the execute() is called. The visible work orders are sorted by a
+ * 64 bit state key (see RenderQueue) and drawn into the offscreen texture. All binds go through GLState, so only the
+ * shader, textures and depth mask that changed from the previous draw are sent. After drawing, the workOrder list is cleared.
+ * 
+ * changeMask() starts a new pass: draws of one pass are sorted among themselves, but all come before those of the
+ * next pass, so e.g. a skybox drawn without depth writes stays behind everything after it. Within a pass, draws are
+ * sorted front to back (back to front without depth writes). The binds issued, and the ones the submission order
+ * would have needed, are counted over all execute() calls of a frame (see endFrame and logStats).
  * 
  * Any object, that isn't drawn for 10 seconds gets also deleted from the gpu. However, it stays in the list of registered
  * constructs. This entry has to be deleted manually by any draw caller. When a registered object gets deleted, the corresponding
@@ -32,12 +38,38 @@ package glGraphics;
  * 
  * glGraphics has also the ability to load constructs directly from files. This approach should be the default as to not clutter the code
  * with manual construct creation
+ * 
+ * registerConstructAsync does the loading on background threads and returns the handle right away. Finished meshes are uploaded at
+ * the start of execute(), limited to Ref.uploadBudgetBytes and Ref.uploadBudgetNanos per frame, so big meshes don't stall a frame.
+ * Until then, draw calls for that construct are skipped.
+ * 
+ * Before drawing, work orders outside of the view frustum are skipped (see getDrawnCount, getCulledCount).
+ * 
+ * All loaded constructs are also kept in a dynamic AABBTree. Transform changes are picked up when a construct is drawn (or
+ * on updateConstruct), and the tree only changes when a construct leaves its fat box. execute() culls the tree hierarchically:
+ * work orders of constructs under nodes completely inside the frustum are taken as they are, only those under nodes cut by a
+ * plane test their own box, against the planes that cut. The tree only knows the last box of each construct, so a construct
+ * drawn more than once per frame, or a work order outside of its fat box, tests each own box against all planes. queryFrustum, queryRange and queryRay answer visibility and proximity
+ * questions without going over every construct.
+ * pick() follows a ray from a pixel through the tree and then through the TriangleBVH of each candidate mesh, all on the cpu.
+ * 
+ * Constructs registered by file name share their Mesh through the AssetCache, which the textures should also be loaded from.
+ * 
+ * The textures of the AssetCache are kept within Ref.textureBudgetBytes by a TextureResidency. execute() marks the textures
+ * of all visible work orders before drawing (loading evicted ones again). endFrame(), called once after everything of a
+ * frame is drawn, evicts the least recently used ones.
  */
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.lwjgl.util.glu.GLU;
 import org.lwjgl.util.vector.Matrix4f;
@@ -45,6 +77,7 @@ import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
+import util.IntList;
 import util.Ref;
 import util.SimpleLogger;
 import static org.lwjgl.opengl.GL11.*;
@@ -56,24 +89,44 @@ public class glGraphics {
     private UUID pointer;
     private Matrix4f model;
     private ShaderWrapper s;
-    private int[] tex;
+    private Texture[] tex;
     private int[] texT;
+    private int lod;
+    private int proxy;
+    //layer of a TextureArray and region of a TextureAtlas, for the "layer" and "region" uniforms. -1 and null if unused
+    private int layer = -1;
+    private Vector4f region;
+    private int pass;
+    private boolean depthWrite;
     
-    public ConstructEntry(UUID uuid, Matrix4f m, ShaderWrapper sw, Texture[] t){
+    public ConstructEntry(UUID uuid, Matrix4f m, ShaderWrapper sw, Texture[] t, int l, int p, int ps, boolean dw){
       pointer = uuid;
+      pass = ps;
+      depthWrite = dw;
+      proxy = p;
       model = new Matrix4f(m);
       s = sw;
+      lod = l;
       
-      tex = new int[t.length];
+      tex = t.clone();
       texT= new int[t.length];
       for(int i=0; i<t.length;i++){
-        tex[i]=t[i].getID();
         texT[i] = t[i].getType();
       }
       
     }
   }
   
+  private static class LoadedMesh{
+    private UUID pointer;
+    private Mesh mesh;
+    
+    public LoadedMesh(UUID u, Mesh m){
+      pointer = u;
+      mesh = m;
+    }
+  }
+  
   private class TextEntry{
     private Vector2f position;
     private Vector4f color;
@@ -86,16 +139,57 @@ public class glGraphics {
     }
   }
 
+  private static final float FAR_PLANE = 100;
+  
   private Matrix4f viewMat, projMat;
+  //projected heights in pixels, below lodThresholds[i] lod i+1 is drawn
+  private float[] lodThresholds;
   
   //holds all registered constructs if not explicitly freed
   private HashMap<UUID, Construct> assets;
-  private HashMap<Integer, Boolean> depthMask;
+  //pass and depth mask of the following draw calls
+  private int pass;
+  private boolean depthWrite;
   //holds all assets that are currently on the gpu
   private ArrayList<UUID> gpuLoaded;
   private LinkedList<UUID> toRelease;
+  //asynchronously loaded meshes waiting for their upload
+  private ExecutorService loader;
+  private ConcurrentLinkedQueue<LoadedMesh> loaded;
+  private AssetCache cache;
+  private TextureResidency residency;
+  
+  //world space bounding boxes of the work orders as center and half extents, one array per component
+  private float[] bcx, bcy, bcz, bex, bey, bez;
+  private boolean[] visible;
+  //the work orders of each proxy as a linked list: the first in proxyHead (valid if proxyHeadStamp is orderStamp), the
+  //following in nextEntry. orderStamp changes whenever the work orders are cleared
+  private int[] proxyHead, proxyHeadStamp;
+  private int[] nextEntry;
+  private int orderStamp = 1;
+  //work orders the tree result doesn't hold for (see drawConstruct), flagged in loose
+  private IntList looseEntries;
+  private boolean[] loose;
+  //a, b, c, d of the left, right, bottom, top, near and far plane. normals point inwards
+  private float[] planes;
+  //counted over all execute() calls of a frame, and the totals of the last finished frame
+  private int drawn, culled;
+  private int lastDrawn, lastCulled;
+  
+  //bvh over all loaded constructs and the proxy of each
+  private AABBTree tree;
+  private HashMap<UUID, Integer> proxies;
+  //counts endFrame() calls. execute() may run more than once per frame
+  private int frame;
+  private IntList treeHits;
   //linked list of construct idx and separate matrix
-  private LinkedList<ConstructEntry> workOrders;
+  private ArrayList<ConstructEntry> workOrders;
+  private RenderQueue queue;
+  //binds issued in this frame, and the ones drawing in submission order would have needed. last* of the last frame
+  private int programBinds, textureBinds;
+  private int unsortedProgramBinds, unsortedTextureBinds;
+  private int lastProgramBinds, lastTextureBinds;
+  private int lastUnsortedProgramBinds, lastUnsortedTextureBinds;
   private LinkedList<TextEntry> textOrders;
   private TrueTypeFontWrapper font;
 
@@ -105,13 +199,35 @@ public class glGraphics {
     wait = false;
     
     assets = new HashMap<>();
-    depthMask = new HashMap<>();
+    depthWrite = true;
     gpuLoaded = new ArrayList<>();
     toRelease = new LinkedList<>();
+    loaded = new ConcurrentLinkedQueue<>();
+    cache = new AssetCache();
+    residency = new TextureResidency(Ref.textureBudgetBytes);
+    cache.setResidency(residency);
+    planes = new float[24];
+    growBounds(64);
+    tree = new AABBTree(Ref.bvhMargin);
+    proxies = new HashMap<>();
+    proxyHead = new int[0];
+    proxyHeadStamp = new int[0];
+    treeHits = new IntList(64);
+    looseEntries = new IntList(16);
+    loader = Executors.newFixedThreadPool(Ref.loaderThreads, new ThreadFactory(){
+      @Override
+      public Thread newThread(Runnable r){
+        Thread t = new Thread(r, "construct loader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
     
-    workOrders = new LinkedList<>();
+    workOrders = new ArrayList<>();
+    queue = new RenderQueue(64);
     textOrders = new LinkedList<>();
     font = new TrueTypeFontWrapper("res/font/trench100free.otf", 35f);
+    lodThresholds = Ref.lodThresholds.clone();
     
     viewMat = new Matrix4f();
     viewMat.translate(new Vector3f(0,0,-3f));
@@ -129,7 +245,7 @@ public class glGraphics {
     float fov = 90f;
     float aspectRatio = (float)(Ref.xRes)/(float)(Ref.yRes);
     float near_plane = 0.1f;
-    float far_plane = 100;
+    float far_plane = FAR_PLANE;
     
     //to radiants
     float asd = 180f / (float)((fov / 2f) *2 *Math.PI);
@@ -149,9 +265,76 @@ public class glGraphics {
   public UUID registerConstruct(Construct c){
     UUID u = UUID.randomUUID();
     assets.put(u, c);
+    if(c.isLoaded()) insertProxy(u, c);
+    return u;
+  }
+  
+  private void insertProxy(UUID u, Construct c){
+    c.transformChanged();
+    proxies.put(u, tree.insert(c.getWorldBox(c.getModelMatrix()), u));
+  }
+  
+  private void removeProxy(UUID u){
+    Integer p = proxies.remove(u);
+    if(p != null) tree.remove(p);
+  }
+  
+  //moves the construct in the bvh after its position, rotation or scale changed. drawing it does the same
+  public void updateConstruct(UUID u){
+    Construct c = getConstruct(u);
+    Integer p = proxies.get(u);
+    if(p != null && c.transformChanged()) tree.move(p, c.getWorldBox(c.getModelMatrix()));
+  }
+  
+  
+  //constructs of the same file share one mesh
+  public UUID registerConstruct(String fn){
+    try{
+      return registerConstruct(new Construct(cache.mesh(fn)));
+    }catch(IOException e){
+      throw new IllegalArgumentException("bullshit file not found or something: " + e);
+    }
+  }
+  
+  //the returned construct is empty until its mesh is loaded, but can already be moved around
+  public UUID registerConstructAsync(final String fn){
+    final UUID u = registerConstruct(new Construct());
+    loader.execute(new Runnable(){
+      @Override
+      public void run(){
+        try{
+          loaded.add(new LoadedMesh(u, cache.mesh(fn)));
+        }catch(IOException | RuntimeException e){
+          SimpleLogger.log("could not load "+fn+": "+e, -1, glGraphics.class, "registerConstructAsync");
+        }
+      }
+    });
     return u;
   }
   
+  //uploads loaded meshes until the budget of this frame is used up
+  private void uploadLoaded(){
+    long t0 = System.nanoTime();
+    long bytes = 0;
+    
+    LoadedMesh lm;
+    while((lm = loaded.peek()) != null){
+      if(bytes > 0 && (bytes + lm.mesh.getByteSize() > Ref.uploadBudgetBytes || System.nanoTime()-t0 > Ref.uploadBudgetNanos)) break;
+      loaded.poll();
+      
+      //released while it was loading
+      Construct c = assets.get(lm.pointer);
+      if(c == null){
+        cache.release(lm.mesh);
+        continue;
+      }
+      
+      c.setMesh(lm.mesh);
+      insertProxy(lm.pointer, c);
+      gpuUpload(lm.pointer);
+      bytes += lm.mesh.getByteSize();
+    }
+  }
   
   public Construct getConstruct(UUID u){
     Construct c = assets.get(u);
@@ -169,86 +352,283 @@ public class glGraphics {
   }
   
   
+  //layer goes to the "layer" uniform of sw, e.g. to pick the image of a TextureArray
+  public void drawConstruct(UUID idx, ShaderWrapper sw, Texture[] t, int layer){
+    drawConstruct(idx, sw, t);
+    if(workOrders.size() > 0 && last().pointer == idx) last().layer = layer;
+  }
+  
+  //region goes to the "region" uniform of sw, e.g. from TextureAtlas.getRegion
+  public void drawConstruct(UUID idx, ShaderWrapper sw, Texture[] t, Vector4f region){
+    drawConstruct(idx, sw, t);
+    if(workOrders.size() > 0 && last().pointer == idx) last().region = region;
+  }
+  
+  private ConstructEntry last(){
+    return workOrders.get(workOrders.size()-1);
+  }
+  
   public void drawConstruct(UUID idx, ShaderWrapper sw, Texture[] t){
     //derives the matrix from the loc/rot/scale attributes of the construct
     if(idx == null) throw new IllegalArgumentException("Error: idx is null!");
     if(!assets.containsKey(idx)) throw new IllegalArgumentException("No construct with idx="+idx+" registered");
+    
+    Construct c = assets.get(idx);
+    if(!c.isLoaded()) return;
     if(!gpuLoaded.contains(idx)) gpuUpload(idx);
 
-    Matrix4f m = new Matrix4f();
-    Construct c = assets.get(idx);
+    Matrix4f m = c.getModelMatrix();
+    float[] box = c.getWorldBox(m);
+    int proxy = proxies.get(idx);
+    if(c.transformChanged()) tree.move(proxy, box);
     
-    m.translate(c.position);
+    int i = workOrders.size();
+    storeBounds(i, box);
+    if(proxyHead.length < tree.getCapacity()){
+      proxyHead = Arrays.copyOf(proxyHead, tree.getCapacity());
+      proxyHeadStamp = Arrays.copyOf(proxyHeadStamp, tree.getCapacity());
+    }
+    nextEntry[i] = proxyHeadStamp[proxy] == orderStamp ? proxyHead[proxy] : -1;
+    proxyHead[proxy] = i;
+    proxyHeadStamp[proxy] = orderStamp;
+    //the proxy only keeps the last box. once a construct is drawn twice, all its work orders are culled on their own
+    if(nextEntry[i] >= 0 && !loose[nextEntry[i]]) markLoose(nextEntry[i]);
+    if(nextEntry[i] >= 0 || !tree.contains(proxy, box)) markLoose(i);
+    workOrders.add(new ConstructEntry(idx, m, sw, t, selectLod(c.getMesh(), m), proxy, pass, depthWrite));
+  }
+  
+  private void markLoose(int i){
+    loose[i] = true;
+    looseEntries.add(i);
+  }
+  
+  //world space box as center and half extents
+  private void storeBounds(int i, float[] box){
+    if(i == bcx.length) growBounds(i*2);
     
-    Matrix4f.mul(m, new Matrix4f().rotate(c.rotation.x, new Vector3f(1,0,0)), m);
-    Matrix4f.mul(m, new Matrix4f().rotate(c.rotation.y, new Vector3f(0,1,0)), m);
-    Matrix4f.mul(m, new Matrix4f().rotate(c.rotation.z, new Vector3f(0,0,1)), m);
+    bcx[i] = (box[0]+box[3])/2;
+    bcy[i] = (box[1]+box[4])/2;
+    bcz[i] = (box[2]+box[5])/2;
+    bex[i] = (box[3]-box[0])/2;
+    bey[i] = (box[4]-box[1])/2;
+    bez[i] = (box[5]-box[2])/2;
+  }
+  
+  private void growBounds(int n){
+    bcx = bcx == null ? new float[n] : Arrays.copyOf(bcx, n);
+    bcy = bcy == null ? new float[n] : Arrays.copyOf(bcy, n);
+    bcz = bcz == null ? new float[n] : Arrays.copyOf(bcz, n);
+    bex = bex == null ? new float[n] : Arrays.copyOf(bex, n);
+    bey = bey == null ? new float[n] : Arrays.copyOf(bey, n);
+    bez = bez == null ? new float[n] : Arrays.copyOf(bez, n);
+    nextEntry = nextEntry == null ? new int[n] : Arrays.copyOf(nextEntry, n);
+    visible = new boolean[n];
+    loose = loose == null ? new boolean[n] : Arrays.copyOf(loose, n);
+  }
+  
+  //planes of the frustum from the rows of P*V (Gribb, Hartmann)
+  private void extractPlanes(){
+    Matrix4f vp = Matrix4f.mul(projMat, viewMat, null);
+    float[][] row = {{vp.m00, vp.m10, vp.m20, vp.m30},
+                     {vp.m01, vp.m11, vp.m21, vp.m31},
+                     {vp.m02, vp.m12, vp.m22, vp.m32},
+                     {vp.m03, vp.m13, vp.m23, vp.m33}};
+    for(int p=0; p<6; p++){
+      float sign = p%2 == 0 ? 1 : -1;
+      float[] r = row[p/2];
+      float len = 0;
+      for(int k=0; k<4; k++){
+        planes[p*4+k] = row[3][k] + sign*r[k];
+        if(k < 3) len += planes[p*4+k]*planes[p*4+k];
+      }
+      len = (float)Math.sqrt(len);
+      for(int k=0; k<4; k++) planes[p*4+k] /= len;
+    }
+  }
+  
+  //a box is outside, if it is completely behind one of the planes. only the work orders of proxies the bvh found are
+  //visited, and their own boxes are only tested against the planes that cut the proxy's node. loose work orders are
+  //tested against all planes, whatever the tree says
+  private void cull(int n){
+    extractPlanes();
+    Arrays.fill(visible, 0, n, false);
     
-    Matrix4f.scale(c.scale, m, m);
+    treeHits.clear();
+    tree.cull(planes, treeHits);
+    for(int h=0; h<treeHits.size(); h+=2){
+      int proxy = treeHits.get(h);
+      int mask = treeHits.get(h+1);
+      if(proxy >= proxyHead.length || proxyHeadStamp[proxy] != orderStamp) continue;
+      
+      for(int i=proxyHead[proxy]; i>=0; i=nextEntry[i]){
+        if(!loose[i]) visible[i] = mask == 0 || insidePlanes(i, mask);
+      }
+    }
+    for(int l=0; l<looseEntries.size(); l++){
+      int i = looseEntries.get(l);
+      visible[i] = insidePlanes(i, 0x3f);
+    }
+  }
+  
+  private boolean insidePlanes(int i, int mask){
+    for(int p=0; p<6; p++){
+      if((mask & (1 << p)) == 0) continue;
+      float a = planes[p*4], b = planes[p*4+1], c = planes[p*4+2];
+      float dist = a*bcx[i] + b*bcy[i] + c*bcz[i] + planes[p*4+3];
+      float rad = Math.abs(a)*bex[i] + Math.abs(b)*bey[i] + Math.abs(c)*bez[i];
+      if(dist + rad < 0) return false;
+    }
+    return true;
+  }
+  
+  //the lod is picked by the projected height of the bounding sphere in pixels
+  private int selectLod(Mesh mesh, Matrix4f m){
+    if(mesh.getLodCount() < 2) return 0;
+    
+    float[] s = mesh.getBoundingSphere();
+    Vector4f center = Matrix4f.transform(m, new Vector4f(s[0], s[1], s[2], 1), null);
+    Matrix4f.transform(viewMat, center, center);
+    
+    float scale = Math.max(new Vector3f(m.m00, m.m01, m.m02).length(),
+                  Math.max(new Vector3f(m.m10, m.m11, m.m12).length(), new Vector3f(m.m20, m.m21, m.m22).length()));
+    float r = s[3]*scale;
+    float dist = -center.z;
+    //camera inside the sphere
+    if(dist <= r) return 0;
     
-    workOrders.add(new ConstructEntry(idx, m, sw, t));
+    float pixels = r*projMat.m11/dist * Ref.yRes;
+    int lod = 0;
+    while(lod < lodThresholds.length && lod < mesh.getLodCount()-1 && pixels < lodThresholds[lod]) lod++;
+    return lod;
+  }
+  
+  public void setLodThresholds(float[] t){
+    lodThresholds = t.clone();
   }
   
   public void drawText(float x, float y, String t, Vector4f color){
     textOrders.add(new TextEntry(new Vector2f(x,y), color, t));
   }
   
+  //depth writes for the following draw calls. starts a new pass
   public void changeMask(boolean enabled){
-    depthMask.put(workOrders.size(), enabled);
+    depthWrite = enabled;
+    if(workOrders.size() > 0 && last().pass == pass) pass++;
   }
   
   public void execute(){
     int err;
+    uploadLoaded();
 
     
     Matrix4f mvp = new Matrix4f();
     long now = System.currentTimeMillis();
 
-    int ord = 0;
+    int n = workOrders.size();
+    cull(n);
     
-    for(ConstructEntry ce : workOrders){
-
-      if(depthMask.containsKey(ord)){
-        glDepthMask(depthMask.get(ord));
+    //evicted textures are loaded again before anything is bound, uploads use texture unit 0
+    for(int i=0; i<n; i++){
+      if(!visible[i]) continue;
+      for(Texture t : workOrders.get(i).tex) residency.use(t, frame);
+    }
+    
+    queue.clear();
+    for(int i=0; i<n; i++){
+      ConstructEntry ce = workOrders.get(i);
+      if(!visible[i]){
+        assets.get(ce.pointer).skip(now);
+        culled++;
+        continue;
       }
+      queue.add(sortKey(ce, i), i);
+    }
+    queue.sort();
+    countUnsortedBinds();
+    
+    //only state changes are sent to gl (see GLState)
+    Matrix4f vp = Matrix4f.mul(projMat, viewMat, null);
+    for(int q=0; q<queue.size(); q++){
+      ConstructEntry ce = workOrders.get(queue.get(q));
+      drawn++;
+      
+      GLState.depthMask(ce.depthWrite);
+      if(GLState.useProgram(ce.s.getShaderID())) programBinds++;
       
       //set all needed textures into their slots
       for(int i = 0; i<ce.tex.length; i++){
-        glActiveTexture(GL_TEXTURE0+i); //texture0 to texture 32 are all behind each other. was too lazy to make a map
-        glBindTexture(ce.texT[i], ce.tex[i]);
+        if(GLState.bindTexture(i, ce.texT[i], ce.tex[i].getID())) textureBinds++;
       }
 
-      Matrix4f.mul(projMat, viewMat, mvp);
-      Matrix4f.mul(mvp, ce.model, mvp);
+      Matrix4f.mul(vp, ce.model, mvp);
 
       //assume that every shader has matrix uniforms
-      ce.s.storeUniform("MVP", mvp);
-      ce.s.storeUniform("M", ce.model);
-      ce.s.storeUniform("V", viewMat);
-      ce.s.storeUniform("P", projMat);
+      ce.s.storeBound("MVP", mvp);
+      ce.s.storeBound("M", ce.model);
+      ce.s.storeBound("V", viewMat);
+      ce.s.storeBound("P", projMat);
+      
+      //dequantization of compact vertex positions
+      Construct c = assets.get(ce.pointer);
+      ce.s.storeBound("posScale", c.getMesh().getPosScale());
+      ce.s.storeBound("posBias", c.getMesh().getPosBias());
+      if(ce.layer >= 0) ce.s.storeBound("layer", ce.layer);
+      if(ce.region != null) ce.s.storeBound("region", ce.region);
 
-      assets.get(ce.pointer).draw(now);
+      c.draw(now, ce.lod);
       
       err = glGetError();
       if(err != GL_NO_ERROR) SimpleLogger.log(GLU.gluErrorString(err) + "("+err+")", -1, this.getClass(), "execute()");
-      
-      ord++;
     }
     
-    glDepthMask(false);
-    glDisable(GL_DEPTH_TEST);
-    for(TextEntry te : textOrders){
-      font.drawText(te.position.x, te.position.y, te.text, te.color);
+    if(!textOrders.isEmpty()){
+      GLState.depthMask(false);
+      GLState.depthTest(false);
+      for(TextEntry te : textOrders){
+        font.drawText(te.position.x, te.position.y, te.text, te.color);
+      }
+      GLState.depthTest(true);
     }
-    glEnable(GL_DEPTH_TEST);
-    glDepthMask(true);
+    GLState.depthMask(true);
     cleanUp(now);
   }
   
+  //pass, depth writes, shader, textures and the view depth of the bounding box center
+  private long sortKey(ConstructEntry ce, int i){
+    int textures = 0;
+    for(Texture t : ce.tex) textures = textures*31 + t.getID();
+    float depth = -(viewMat.m02*bcx[i] + viewMat.m12*bcy[i] + viewMat.m22*bcz[i] + viewMat.m32);
+    return RenderQueue.key(ce.pass, ce.depthWrite, ce.s.getShaderID(), textures ^ (textures >>> 16), depth, FAR_PLANE);
+  }
+  
+  //the shader and texture binds the visible work orders would need in submission order, for comparison
+  private void countUnsortedBinds(){
+    int program = -1;
+    int[] bound = new int[32];
+    Arrays.fill(bound, -1);
+    for(int i=0; i<workOrders.size(); i++){
+      if(!visible[i]) continue;
+      ConstructEntry ce = workOrders.get(i);
+      if(program != ce.s.getShaderID()){
+        program = ce.s.getShaderID();
+        unsortedProgramBinds++;
+      }
+      for(int t=0; t<ce.tex.length; t++){
+        if(bound[t] == ce.tex[t].getID()) continue;
+        bound[t] = ce.tex[t].getID();
+        unsortedTextureBinds++;
+      }
+    }
+  }
+  
   private void cleanUp(long now){
     workOrders.clear();
+    orderStamp++;
+    for(int l=0; l<looseEntries.size(); l++) loose[looseEntries.get(l)] = false;
+    looseEntries.clear();
     textOrders.clear();
-    depthMask.clear();
+    pass = 0;
+    depthWrite = true;
     
     LinkedList<UUID> olds = new LinkedList<>();
 
@@ -263,17 +643,150 @@ public class glGraphics {
     }
     
     for(UUID u : toRelease){
-      assets.get(u).releaseVBO();
+      Construct c = assets.get(u);
+      c.releaseVBO();
+      if(c.isLoaded()) cache.release(c.getMesh());
+      removeProxy(u);
       gpuLoaded.remove(u);
       assets.remove(u);
     }
     toRelease.clear();
   }
   
+  //once per frame, after the last execute()
+  public void endFrame(){
+    residency.trim(frame);
+    frame++;
+    
+    lastDrawn = drawn;
+    lastCulled = culled;
+    drawn = 0;
+    culled = 0;
+    
+    lastProgramBinds = programBinds;
+    lastTextureBinds = textureBinds;
+    lastUnsortedProgramBinds = unsortedProgramBinds;
+    lastUnsortedTextureBinds = unsortedTextureBinds;
+    programBinds = 0;
+    textureBinds = 0;
+    unsortedProgramBinds = 0;
+    unsortedTextureBinds = 0;
+  }
+  
   public void rotate(double d){
     viewMat.rotate((float)(d*0.003), new Vector3f(0,0,1));
   }
   
+  //constructs whose (fat) bounds are at least partly inside the view frustum
+  public ArrayList<UUID> queryFrustum(){
+    extractPlanes();
+    IntList hits = new IntList(64);
+    tree.cull(planes, hits);
+    return toUUIDs(hits, 2);
+  }
+  
+  //constructs whose (fat) bounds overlap the box from min to max
+  public ArrayList<UUID> queryRange(Vector3f min, Vector3f max){
+    IntList hits = new IntList(64);
+    tree.query(new float[]{min.x, min.y, min.z, max.x, max.y, max.z}, hits);
+    return toUUIDs(hits, 1);
+  }
+  
+  //constructs whose (fat) bounds are hit by the ray within maxDist, nearest first
+  public ArrayList<UUID> queryRay(Vector3f origin, Vector3f dir, float maxDist){
+    IntList hits = new IntList(64);
+    float len = dir.length();
+    tree.raycast(new float[]{origin.x, origin.y, origin.z}, new float[]{dir.x/len, dir.y/len, dir.z/len}, maxDist, hits);
+    return toUUIDs(hits, 2);
+  }
+  
+  //closest construct triangle under the pixel x, y (origin bottom left, like Mouse.getX/getY), null if there is none
+  public PickResult pick(int x, int y){
+    Matrix4f inv = Matrix4f.mul(projMat, viewMat, null);
+    if(Matrix4f.invert(inv, inv) == null) return null;
+    
+    //unproject the pixel on the near and far plane
+    float nx = 2f*(x+0.5f)/Ref.xRes - 1;
+    float ny = 2f*(y+0.5f)/Ref.yRes - 1;
+    Vector4f near = Matrix4f.transform(inv, new Vector4f(nx, ny, -1, 1), null);
+    Vector4f far = Matrix4f.transform(inv, new Vector4f(nx, ny, 1, 1), null);
+    Vector3f o = new Vector3f(near.x/near.w, near.y/near.w, near.z/near.w);
+    Vector3f d = Vector3f.sub(new Vector3f(far.x/far.w, far.y/far.w, far.z/far.w), o, null);
+    float len = d.length();
+    d.scale(1/len);
+    
+    IntList candidates = new IntList(16);
+    tree.raycast(new float[]{o.x, o.y, o.z}, new float[]{d.x, d.y, d.z}, len, candidates);
+    
+    PickResult best = null;
+    float bestT = len;
+    float[] hit = new float[3];
+    for(int i=0; i<candidates.size(); i+=2){
+      //sorted by the distance to the box, nothing behind the closest hit can be closer
+      if(Float.intBitsToFloat(candidates.get(i+1)) > bestT) break;
+      
+      UUID u = (UUID)tree.getData(candidates.get(i));
+      Construct c = assets.get(u);
+      Matrix4f mi = Matrix4f.invert(c.getModelMatrix(), null);
+      if(mi == null) continue;
+      
+      //the ray in model space. the direction isn't normalized, so t stays a world space distance
+      Vector4f mo = Matrix4f.transform(mi, new Vector4f(o.x, o.y, o.z, 1), null);
+      Vector4f md = Matrix4f.transform(mi, new Vector4f(d.x, d.y, d.z, 0), null);
+      int tri = c.getMesh().getPickTree().intersect(new float[]{mo.x, mo.y, mo.z}, new float[]{md.x, md.y, md.z}, bestT, hit);
+      if(tri >= 0){
+        bestT = hit[0];
+        best = new PickResult(u, tri, hit[1], hit[2], hit[0]);
+      }
+    }
+    return best;
+  }
+  
+  private ArrayList<UUID> toUUIDs(IntList proxyList, int stride){
+    ArrayList<UUID> l = new ArrayList<>(proxyList.size()/stride);
+    for(int i=0; i<proxyList.size(); i+=stride) l.add((UUID)tree.getData(proxyList.get(i)));
+    return l;
+  }
+  
+  //work orders drawn and culled in the last frame
+  public int getDrawnCount(){
+    return lastDrawn;
+  }
+  
+  public int getCulledCount(){
+    return lastCulled;
+  }
+  
+  //glUseProgram and glBindTexture calls of the last frame, sorted and as they would have been in submission order
+  public int getProgramBinds(){
+    return lastProgramBinds;
+  }
+  
+  public int getTextureBinds(){
+    return lastTextureBinds;
+  }
+  
+  public int getUnsortedProgramBinds(){
+    return lastUnsortedProgramBinds;
+  }
+  
+  public int getUnsortedTextureBinds(){
+    return lastUnsortedTextureBinds;
+  }
+  
+  public void logStats(){
+    SimpleLogger.log("draws: "+lastDrawn+" drawn, "+lastCulled+" culled, program binds "+lastProgramBinds+" (unsorted "+lastUnsortedProgramBinds
+                     +"), texture binds "+lastTextureBinds+" (unsorted "+lastUnsortedTextureBinds+")", 1, glGraphics.class, "logStats");
+  }
+  
+  public AssetCache getAssetCache(){
+    return cache;
+  }
+  
+  public TextureResidency getTextureResidency(){
+    return residency;
+  }
+  
   public int getTextWidth(String t){
     return font.getTextWidth(t);
   }
@@ -286,8 +799,11 @@ public class glGraphics {
     gpuLoaded.clear();
     for(Construct c : assets.values()){
       c.releaseVBO();
+      if(c.isLoaded()) cache.release(c.getMesh());
     }
     assets.clear();
+    for(int p : proxies.values()) tree.remove(p);
+    proxies.clear();
   }
   
   public boolean isLocked(){
@@ -0,0 +1,85 @@
+package util;
+
+/**
+ * Growable array of primitive floats. Used instead of LinkedList<Float> wherever large amounts
+ * of vertex data are collected, as to avoid boxing every single value.
+ * The backing array doubles in size when full, so n adds cause only O(log n) allocations.
+ */
+
+import java.util.Arrays;
+
+public class FloatList {
+
+  private float[] data;
+  private int size;
+  
+  public FloatList(){
+    this(64);
+  }
+  
+  public FloatList(int capacity){
+    data = new float[Math.max(capacity, 4)];
+    size = 0;
+  }
+  
+  public void add(float f){
+    if(size == data.length) grow(size+1);
+    data[size++] = f;
+  }
+  
+  public void add(float a, float b){
+    if(size+2 > data.length) grow(size+2);
+    data[size++] = a;
+    data[size++] = b;
+  }
+  
+  public void add(float a, float b, float c){
+    if(size+3 > data.length) grow(size+3);
+    data[size++] = a;
+    data[size++] = b;
+    data[size++] = c;
+  }
+  
+  public void addAll(float[] a){
+    if(size+a.length > data.length) grow(size+a.length);
+    System.arraycopy(a, 0, data, size, a.length);
+    size += a.length;
+  }
+  
+  public float get(int i){
+    return data[i];
+  }
+  
+  public void set(int i, float f){
+    data[i] = f;
+  }
+  
+  public int size(){
+    return size;
+  }
+  
+  public void clear(){
+    size = 0;
+  }
+  
+  //sets the size, growing the backing array if needed. new values are undefined until written through array()
+  public void resize(int n){
+    if(n > data.length) data = Arrays.copyOf(data, n);
+    size = n;
+  }
+  
+  //direct access to the backing array. only the first size() values are valid
+  public float[] array(){
+    return data;
+  }
+  
+  public float[] toArray(){
+    return Arrays.copyOf(data, size);
+  }
+  
+  private void grow(int min){
+    int cap = data.length;
+    while(cap < min) cap *= 2;
+    data = Arrays.copyOf(data, cap);
+  }
+}
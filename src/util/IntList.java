@@ -0,0 +1,85 @@
+package util;
+
+/**
+ * Growable array of primitive ints. Used instead of LinkedList<Integer> wherever large amounts
+ * of index data are collected, as to avoid boxing every single value.
+ * The backing array doubles in size when full, so n adds cause only O(log n) allocations.
+ */
+
+import java.util.Arrays;
+
+public class IntList {
+
+  private int[] data;
+  private int size;
+  
+  public IntList(){
+    this(64);
+  }
+  
+  public IntList(int capacity){
+    data = new int[Math.max(capacity, 4)];
+    size = 0;
+  }
+  
+  public void add(int i){
+    if(size == data.length) grow(size+1);
+    data[size++] = i;
+  }
+  
+  public void add(int a, int b){
+    if(size+2 > data.length) grow(size+2);
+    data[size++] = a;
+    data[size++] = b;
+  }
+  
+  public void add(int a, int b, int c){
+    if(size+3 > data.length) grow(size+3);
+    data[size++] = a;
+    data[size++] = b;
+    data[size++] = c;
+  }
+  
+  public void addAll(int[] a){
+    if(size+a.length > data.length) grow(size+a.length);
+    System.arraycopy(a, 0, data, size, a.length);
+    size += a.length;
+  }
+  
+  public int get(int i){
+    return data[i];
+  }
+  
+  public void set(int idx, int i){
+    data[idx] = i;
+  }
+  
+  public int size(){
+    return size;
+  }
+  
+  public void clear(){
+    size = 0;
+  }
+  
+  //sets the size, growing the backing array if needed. new values are undefined until written through array()
+  public void resize(int n){
+    if(n > data.length) data = Arrays.copyOf(data, n);
+    size = n;
+  }
+  
+  //direct access to the backing array. only the first size() values are valid
+  public int[] array(){
+    return data;
+  }
+  
+  public int[] toArray(){
+    return Arrays.copyOf(data, size);
+  }
+  
+  private void grow(int min){
+    int cap = data.length;
+    while(cap < min) cap *= 2;
+    data = Arrays.copyOf(data, cap);
+  }
+}
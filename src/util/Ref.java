@@ -13,6 +13,45 @@ public class Ref {
   //how long, in ms, it takes for a Construct to be discarded if it isn't drawn
   public static final long renderPause = 10000;
   
+  //where binary versions of parsed meshes are kept (see MeshCache)
+  public static final String meshCacheDir = "cache/mesh";
+  //.obj files of at least this many bytes are parsed on all cores
+  public static final long parallelObjSize = 16L << 20;
+  //reorder loaded meshes for the vertex cache. changing this rebuilds the mesh cache
+  public static final boolean optimizeMeshes = true;
+  //quantize vertex attributes of loaded meshes (16 instead of 32 bytes per vertex)
+  public static final boolean compactVertices = true;
+  //allow 8 bit indices for meshes with up to 256 vertices
+  public static final boolean byteIndices = true;
+  //split meshes with more than 65536 vertices into parts, so they can use 16 bit indices
+  public static final boolean splitLargeMeshes = true;
+  //levels of detail per mesh, including the full one. each has about half the triangles of the previous
+  public static final int lodLevels = 4;
+  //largest allowed simplification error, relative to the mesh size
+  public static final float lodMaxError = 0.02f;
+  //projected height in pixels below which lod 1, 2, ... is drawn (see glGraphics.setLodThresholds)
+  public static final float[] lodThresholds = {300, 120, 50};
+  //fat boxes in the construct BVH are grown by this fraction of their size, so small movements don't touch the tree
+  public static final float bvhMargin = 0.1f;
+  //background threads loading Constructs registered with glGraphics.registerConstructAsync
+  public static final int loaderThreads = 2;
+  //per frame limits for uploading asynchronously loaded meshes. at least one mesh is uploaded per frame
+  public static final long uploadBudgetBytes = 8L << 20;
+  public static final long uploadBudgetNanos = 2000000;
+  //store 2d textures block compressed with precomputed mips (see TextureCache), in this format (see BCEncoder)
+  public static final boolean compressTextures = true;
+  public static final int textureFormat = 0;
+  public static final String textureCacheDir = "cache/texture";
+  //build mip chains on the cpu (see MipGenerator, on the TextureLoader workers) instead of with glGenerateMipmap, with this
+  //filter (BOX 0, KAISER 1, LANCZOS 2) and in linear space. changing these rebuilds the texture cache.
+  //gamma correction treats every texture as sRGB color, but they are uploaded as GL_RGBA and some hold data (the bump
+  //offsets of stone.png, the heat.png lookup), so it stays off
+  public static final boolean cpuMips = true;
+  public static final int mipFilter = 1;
+  public static final boolean mipGammaCorrect = false;
+  //gpu memory for AssetCache textures. above it, the least recently drawn ones are evicted (see TextureResidency)
+  public static final long textureBudgetBytes = 256L << 20;
+  
   //map GL_ACTIVE_TEXTURE slots for up to 8 FrameBuffers
   public static final int[] fboTargetSlot = {10, 11, 12, 13, 14, 15, 16, 17};
   public static final int MAX_FBO = 8;